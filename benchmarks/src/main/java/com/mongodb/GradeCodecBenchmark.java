@@ -0,0 +1,75 @@
+package com.mongodb;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generation and BSON encoding/decoding of the grade documents the generator reads and writes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GradeCodecBenchmark {
+    private final DocumentCodec codec = new DocumentCodec();
+    private Document grade;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        grade = Create.generateNewGrade(10000d, 1d);
+        encoded = encode(grade);
+    }
+
+    @Benchmark
+    public Document generate() {
+        return Create.generateNewGrade(10000d, 1d);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return encode(grade);
+    }
+
+    @Benchmark
+    public byte[] generateAndEncode() {
+        return encode(Create.generateNewGrade(10000d, 1d));
+    }
+
+    @Benchmark
+    public Document decode() {
+        return codec.decode(new BsonBinaryReader(ByteBuffer.wrap(encoded)), DecoderContext.builder().build());
+    }
+
+    @Benchmark
+    public Object decodeRawScores() {
+        return new RawBsonDocument(encoded).get("scores");
+    }
+
+    private byte[] encode(Document document) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer(256);
+        codec.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        return buffer.toByteArray();
+    }
+}
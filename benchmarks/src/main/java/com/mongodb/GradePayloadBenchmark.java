@@ -0,0 +1,109 @@
+package com.mongodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost per grade of producing an insert batch and encoding it the way the driver does, as a
+ * {@link Document} tree versus {@link GradePayload} raw BSON. Run with {@code -prof gc} to compare
+ * the allocation rate ({@code gc.alloc.rate.norm} is bytes per grade).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GradePayloadBenchmark {
+    static final int BATCH_SIZE = 1000;
+
+    private final DocumentCodec documentCodec = new DocumentCodec();
+    private final RawBsonDocumentCodec rawCodec = new RawBsonDocumentCodec();
+    private final EncoderContext encoderContext = EncoderContext.builder().build();
+    private GradePayload payload;
+    private GradePayload.Buffer buffer;
+    // Stands in for the driver's reused output buffer, only the generation side should allocate.
+    private BasicOutputBuffer out;
+    private long studentId;
+
+    @Setup
+    public void setup() {
+        payload = new GradePayload();
+        buffer = payload.newBuffer(BATCH_SIZE);
+        out = new BasicOutputBuffer(BATCH_SIZE * payload.length() * 2);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int documentBatch() {
+        List<Document> grades = new ArrayList<Document>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            grades.add(Create.generateNewGrade(studentId++, 1d));
+        }
+        out.truncateToPosition(0);
+        BsonBinaryWriter writer = new BsonBinaryWriter(out);
+        for (Document grade : grades) {
+            documentCodec.encode(writer, grade, encoderContext);
+        }
+        return out.getPosition();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int pooledRawBatch() {
+        List<RawBsonDocument> grades = buffer.fill(studentId, BATCH_SIZE, 1d);
+        studentId += BATCH_SIZE;
+        out.truncateToPosition(0);
+        BsonBinaryWriter writer = new BsonBinaryWriter(out);
+        for (RawBsonDocument grade : grades) {
+            rawCodec.encode(writer, grade, encoderContext);
+        }
+        return out.getPosition();
+    }
+
+    /**
+     * Generation alone, without the encoding cost the driver adds for either form.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<RawBsonDocument> pooledRawFill() {
+        List<RawBsonDocument> grades = buffer.fill(studentId, BATCH_SIZE, 1d);
+        studentId += BATCH_SIZE;
+        return grades;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int rawBatch() {
+        List<RawBsonDocument> grades = new ArrayList<RawBsonDocument>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            grades.add(payload.newGrade(studentId++, 1d));
+        }
+        out.truncateToPosition(0);
+        BsonBinaryWriter writer = new BsonBinaryWriter(out);
+        for (RawBsonDocument grade : grades) {
+            rawCodec.encode(writer, grade, encoderContext);
+        }
+        return out.getPosition();
+    }
+}
@@ -0,0 +1,51 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The target is polled by the coordinator for every added worker and by every worker
+ * through {@code shouldContinue}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionTargetBenchmark {
+    private Stats stats;
+    private File report;
+    private ConnectionTarget target;
+
+    @Setup
+    public void setup() throws IOException {
+        report = File.createTempFile("connectionTarget", ".txt");
+        stats = new Stats(report.getPath(), new String[]{ "reads", "writes" });
+        target = new ConnectionTarget(stats, 700);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        stats.close();
+        report.delete();
+    }
+
+    @Benchmark
+    public int getThreadCountTarget() {
+        return target.getThreadCountTarget();
+    }
+}
@@ -0,0 +1,39 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The original Stats.registerEvent: one global lock and a string keyed HashMap lookup per
+ * event. Kept as the baseline the {@link MetricsRegistry} is compared against.
+ */
+public class LockedStatsBaseline {
+    private final ReentrantLock lock = new ReentrantLock();
+    private Map<String, FrequencyCounter> stats = new HashMap<String, FrequencyCounter>();
+
+    public void registerEvent(String type) {
+        lock.lock();
+        try {
+            FrequencyCounter counter = stats.getOrDefault(type, null);
+            if (counter == null) {
+                counter = new FrequencyCounter(1, TimeUnit.SECONDS);
+                stats.put(type, counter);
+            }
+            counter.increment();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getValue(String key) {
+        lock.lock();
+        try {
+            FrequencyCounter counter = stats.get(key);
+            return counter == null ? 0 : counter.getCount();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
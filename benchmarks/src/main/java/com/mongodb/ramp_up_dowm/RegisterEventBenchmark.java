@@ -0,0 +1,70 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Event counting as done by every worker. Run with {@link ThreadScalingRunner} to see how
+ * each variant scales with the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegisterEventBenchmark {
+    private LockedStatsBaseline baseline;
+    private MetricsRegistry registry;
+    private EventCounter handle;
+    private Stats stats;
+    private File report;
+
+    @Setup
+    public void setup() throws IOException {
+        baseline = new LockedStatsBaseline();
+        registry = new MetricsRegistry();
+        handle = registry.counter("reads");
+        report = File.createTempFile("registerEvent", ".txt");
+        stats = new Stats(report.getPath(), new String[]{ "reads" });
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        stats.close();
+        report.delete();
+    }
+
+    @Benchmark
+    public void lockedHashMap() {
+        baseline.registerEvent("reads");
+    }
+
+    @Benchmark
+    public void statsRegisterEvent() {
+        stats.registerEvent("reads");
+    }
+
+    @Benchmark
+    public void registryByName() {
+        registry.counter("reads").increment();
+    }
+
+    @Benchmark
+    public void registryHandle() {
+        handle.increment();
+    }
+}
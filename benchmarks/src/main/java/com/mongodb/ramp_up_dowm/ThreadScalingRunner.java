@@ -0,0 +1,54 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks once per thread count and prints throughput side by side.
+ * JMH results are saved as {@code threads-<n>.json} in the result directory; keep one directory
+ * per release (e.g. {@code jmh-results/1.0}) to track regressions between releases.
+ *
+ * Usage: ThreadScalingRunner [benchmark regex] [comma separated thread counts] [result directory]
+ */
+public class ThreadScalingRunner {
+    static final String DEFAULT_INCLUDE = "com\\.mongodb\\..*Benchmark";
+    static final String DEFAULT_THREADS = "1,2,4,8,16,32";
+    static final String DEFAULT_RESULT_DIR = "target/jmh";
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : DEFAULT_INCLUDE;
+        String threadList = args.length > 1 ? args[1] : DEFAULT_THREADS;
+        File resultDir = new File(args.length > 2 ? args[2] : DEFAULT_RESULT_DIR);
+        resultDir.mkdirs();
+
+        List<String> lines = new ArrayList<String>();
+        for (String t : threadList.split(",")) {
+            int threads = Integer.parseInt(t.trim());
+            Options options = new OptionsBuilder()
+                .include(include)
+                .threads(threads)
+                .resultFormat(ResultFormatType.JSON)
+                .result(new File(resultDir, "threads-" + threads + ".json").getPath())
+                .build();
+            Collection<RunResult> results = new Runner(options).run();
+            for (RunResult result : results) {
+                lines.add(String.format("%-70s %8d %16.0f %s", result.getParams().getBenchmark(), threads,
+                    result.getPrimaryResult().getScore(), result.getPrimaryResult().getScoreUnit()));
+            }
+        }
+        System.out.println(String.format("%-70s %8s %16s", "Benchmark", "Threads", "Score"));
+        lines.sort(null);
+        for (String line : lines) {
+            System.out.println(line);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Result handoff between a worker and the coordinator, with a worker per benchmark thread
+ * and with one worker shared by all of them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkThreadBenchmark {
+    private static final Document RESULT = new Document("student_id", 10000d);
+
+    static class IdleWorker extends RampUpAndDown.WorkThread {
+        IdleWorker(EventCounter results) {
+            this.results = results;
+        }
+
+        @Override
+        protected void work() {
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OwnWorker {
+        IdleWorker worker;
+
+        @Setup
+        public void setup(Counters counters) {
+            worker = new IdleWorker(counters.results);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedWorker {
+        IdleWorker worker;
+
+        @Setup
+        public void setup(Counters counters) {
+            worker = new IdleWorker(counters.results);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Counters {
+        final EventCounter results = new MetricsRegistry().counter("reads");
+    }
+
+    @Benchmark
+    public Bson ownWorker(OwnWorker state) {
+        state.worker.setResult(RESULT);
+        return state.worker.getResult();
+    }
+
+    @Benchmark
+    public Bson sharedWorker(SharedWorker state) {
+        state.worker.setResult(RESULT);
+        return state.worker.getResult();
+    }
+}
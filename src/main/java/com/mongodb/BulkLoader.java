@@ -0,0 +1,292 @@
+package com.mongodb;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+
+/**
+ * Loads grade documents for a range of student ids with a producer/consumer pipeline.
+ * <p>
+ * The id range is split into ranges of {@code loader.rangeSize} students. Generator threads build
+ * batches of {@code loader.batchSize} documents for one range at a time and hand them to the insert
+ * threads through a bounded queue, which caps the memory used by documents waiting to be inserted.
+ * Batches are written as raw BSON by {@link GradePayload} into a fixed pool of buffers that the insert
+ * threads give back once the batch is in, so generation allocates nothing per document.
+ * Ranges are handed out in strided order so the concurrent insert streams hit different shard key
+ * ranges. A range is appended to the checkpoint file once all its batches are inserted; a restarted
+ * load skips committed ranges and deletes whatever a previous run left of the others first. The default
+ * checkpoint file is named after the cluster hosts and the namespace, and is deleted once the load completes.
+ */
+public class BulkLoader {
+    public static final String RANGE_SIZE_PROPERTY = "loader.rangeSize";
+    public static final String BATCH_SIZE_PROPERTY = "loader.batchSize";
+    public static final String GENERATORS_PROPERTY = "loader.generators";
+    public static final String INSERTERS_PROPERTY = "loader.inserters";
+    public static final String CHECKPOINT_PROPERTY = "loader.checkpoint";
+
+    private final MongoCollection<RawBsonDocument> collection;
+    private final int rangeSize;
+    private final int batchSize;
+    private final int generators;
+    private final int inserters;
+    private final Path checkpoint;
+
+    private final ConcurrentLinkedQueue<Range> pendingRanges = new ConcurrentLinkedQueue<Range>();
+    private final BlockingQueue<Batch> batches;
+    private final GradePayload payload = new GradePayload();
+    private final BlockingQueue<GradePayload.Buffer> freeBuffers;
+    private final AtomicLong insertedDocuments = new AtomicLong();
+    private final AtomicInteger committedRanges = new AtomicInteger();
+    private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    private FileWriter checkpointWriter;
+    private Bson keep;
+
+    /**
+     * @param uri connection string of the cluster, the default checkpoint file belongs to its hosts.
+     */
+    public BulkLoader(String uri, MongoCollection<Document> collection) {
+        this.collection = collection.withDocumentClass(RawBsonDocument.class);
+        this.rangeSize = Integer.getInteger(RANGE_SIZE_PROPERTY, 10000);
+        this.batchSize = Integer.getInteger(BATCH_SIZE_PROPERTY, 1000);
+        this.generators = Integer.getInteger(GENERATORS_PROPERTY, Runtime.getRuntime().availableProcessors());
+        this.inserters = Integer.getInteger(INSERTERS_PROPERTY, 8);
+        this.checkpoint = Paths.get(System.getProperty(CHECKPOINT_PROPERTY, defaultCheckpoint(uri, collection)));
+        this.batches = new ArrayBlockingQueue<Batch>(inserters * 2);
+        // Enough for a full queue plus the batch each thread works on, generators wait for more.
+        int bufferCount = inserters * 3 + generators;
+        this.freeBuffers = new ArrayBlockingQueue<GradePayload.Buffer>(bufferCount);
+        for (int i = 0; i < bufferCount; ++i) {
+            freeBuffers.add(payload.newBuffer(batchSize));
+        }
+    }
+
+    /**
+     * @return true when a previous load of the same target did not complete, {@link #load} then resumes it.
+     */
+    public boolean isResuming() {
+        return Files.exists(checkpoint);
+    }
+
+    /**
+     * @param keep documents that were not written by the loader, left alone by the cleanup of uncommitted
+     * ranges when resuming.
+     */
+    public void setKeep(Bson keep) {
+        this.keep = keep;
+    }
+
+    /**
+     * @return a checkpoint file of its own for each cluster and namespace, so loads of different targets do not
+     * skip each other's ranges.
+     */
+    private static String defaultCheckpoint(String uri, MongoCollection<Document> collection) {
+        // The hosts only, the rest of the connection string may hold credentials and changing options.
+        String hosts = String.join(",", new ConnectionString(uri).getHosts());
+        return "/tmp/bulkloader-" + collection.getNamespace().getFullName() + "-" +
+            Integer.toHexString(hosts.hashCode()) + ".checkpoint";
+    }
+
+    /**
+     * Students in [from, to), the unit of progress and resume.
+     */
+    static class Range {
+        final long from;
+        final long to;
+        // Batches of this range that are not inserted yet.
+        final AtomicInteger remainingBatches = new AtomicInteger();
+
+        Range(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return the checkpoint file line of the range.
+         */
+        @Override
+        public String toString() {
+            return from + " " + to;
+        }
+    }
+
+    static class Batch {
+        final Range range;
+        final GradePayload.Buffer buffer;
+        final List<RawBsonDocument> documents;
+
+        Batch(Range range, GradePayload.Buffer buffer, List<RawBsonDocument> documents) {
+            this.range = range;
+            this.buffer = buffer;
+            this.documents = documents;
+        }
+    }
+
+    /**
+     * Loads one grade for each student in [fromStudentId, toStudentId).
+     */
+    public void load(long fromStudentId, long toStudentId) throws IOException, InterruptedException {
+        // The file is created before the first range is committed, a previous run may have left documents
+        // in uncommitted ranges even when it did not commit any.
+        boolean resuming = isResuming();
+        Set<String> committed = readCheckpoint();
+        List<Range> ranges = new ArrayList<Range>();
+        for (long from = fromStudentId; from < toStudentId; from += rangeSize) {
+            Range range = new Range(from, Math.min(from + rangeSize, toStudentId));
+            if (!committed.contains(range.toString())) {
+                ranges.add(range);
+            }
+        }
+        if (resuming) {
+            System.out.println("Resuming from " + checkpoint + ": " + committed.size() +
+                " ranges already committed, " + ranges.size() + " to go");
+        }
+        // Stride through the ranges so concurrent inserts land in different parts of the key space.
+        int stride = Math.max(1, ranges.size() / inserters);
+        for (int offset = 0; offset < stride; ++offset) {
+            for (int i = offset; i < ranges.size(); i += stride) {
+                pendingRanges.add(ranges.get(i));
+            }
+        }
+
+        checkpointWriter = new FileWriter(checkpoint.toFile(), true);
+        long start = System.nanoTime();
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int i = 0; i < generators; ++i) {
+            producers.add(startThread("loader-generator-" + i, () -> produce(resuming)));
+        }
+        List<Thread> consumers = new ArrayList<Thread>();
+        for (int i = 0; i < inserters; ++i) {
+            consumers.add(startThread("loader-insert-" + i, this::consume));
+        }
+
+        long lastDocuments = 0;
+        while (committedRanges.get() < ranges.size() && failure.get() == null) {
+            Thread.sleep(1000);
+            long documents = insertedDocuments.get();
+            System.out.println(String.format("Inserted %d documents, %d docs/sec, %d of %d ranges committed, " +
+                "%d batches queued", documents, documents - lastDocuments, committedRanges.get(), ranges.size(),
+                batches.size()));
+            lastDocuments = documents;
+        }
+        for (Thread t : producers) {
+            t.interrupt();
+            t.join();
+        }
+        for (Thread t : consumers) {
+            t.interrupt();
+            t.join();
+        }
+        checkpointWriter.close();
+        if (failure.get() != null) {
+            throw new IOException("Bulk load failed, rerun to resume from " + checkpoint, failure.get());
+        }
+        Files.delete(checkpoint);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("Loaded %d documents in %.1f sec, %.0f docs/sec",
+            insertedDocuments.get(), seconds, insertedDocuments.get() / seconds));
+    }
+
+    private static Thread startThread(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.start();
+        return t;
+    }
+
+    private Set<String> readCheckpoint() throws IOException {
+        Set<String> committed = new HashSet<String>();
+        if (Files.exists(checkpoint)) {
+            for (String line : Files.readAllLines(checkpoint)) {
+                committed.add(line.trim());
+            }
+        }
+        return committed;
+    }
+
+    /**
+     * Generator thread: builds the batches of one range at a time.
+     *
+     * @param resuming when true, documents a previous run left in a range are deleted before reloading it.
+     */
+    private void produce(boolean resuming) {
+        try {
+            Range range;
+            while ((range = pendingRanges.poll()) != null && failure.get() == null) {
+                if (resuming) {
+                    Bson inRange = Filters.and(Filters.gte("student_id", (double) range.from),
+                        Filters.lt("student_id", (double) range.to));
+                    collection.deleteMany(keep == null ? inRange : Filters.and(inRange, Filters.nor(keep)));
+                }
+                long count = range.to - range.from;
+                range.remainingBatches.set((int) ((count + batchSize - 1) / batchSize));
+                for (long batchFrom = range.from; batchFrom < range.to; batchFrom += batchSize) {
+                    int size = (int) (Math.min(batchFrom + batchSize, range.to) - batchFrom);
+                    GradePayload.Buffer buffer = freeBuffers.take();
+                    batches.put(new Batch(range, buffer, buffer.fill(batchFrom, size, 1d)));
+                }
+            }
+        } catch (InterruptedException e) {
+            // Load finished or failed.
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Insert thread: inserts batches and commits ranges whose last batch is in.
+     */
+    private void consume() {
+        try {
+            while (true) {
+                Batch batch = batches.poll(100, TimeUnit.MILLISECONDS);
+                if (batch == null) {
+                    continue;
+                }
+                collection.insertMany(batch.documents, new InsertManyOptions().ordered(false));
+                insertedDocuments.addAndGet(batch.documents.size());
+                freeBuffers.add(batch.buffer);
+                if (batch.range.remainingBatches.decrementAndGet() == 0) {
+                    commit(batch.range);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Load finished or failed.
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private void commit(Range range) throws IOException {
+        synchronized (checkpointWriter) {
+            checkpointWriter.write(range + "\n");
+            checkpointWriter.flush();
+        }
+        committedRanges.incrementAndGet();
+    }
+
+    private void fail(Exception e) {
+        System.out.println("Bulk load failure: " + e);
+        e.printStackTrace();
+        failure.compareAndSet(null, e);
+    }
+}
@@ -12,7 +12,8 @@ import java.util.List;
 
 public class Connection {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        StubServer.startIfEmbedded();
         String connectionString = System.getProperty("mongodb.uri");
         try (MongoClient mongoClient = MongoClients.create(connectionString)) {
             List<Document> databases = mongoClient.listDatabases().into(new ArrayList<>());
@@ -7,69 +7,89 @@ import static java.util.Arrays.asList;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Indexes;
-import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
 
 public class Create {
 
-    private static final Random rand = new Random();
-
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        StubServer.startIfEmbedded();
         try (MongoClient mongoClient = MongoClients.create(System.getProperty("mongodb.uri"))) {
 
             MongoDatabase sampleTrainingDB = mongoClient.getDatabase("sample_training");
             MongoCollection<Document> gradesCollection = sampleTrainingDB.getCollection("grades");
 
-            insertManyDocuments(gradesCollection);
-
-            // Create shard index.
-            gradesCollection.createIndex(Indexes.ascending("student_id"));
-            // Enable sharding.
-            Document result = 
-                mongoClient.getDatabase("admin").runCommand(new BasicDBObject("enablesharding", "sample_training")); 
-            assert(result.get("OK").toString() == "1");
-
-            // Shard collection.
-            result = mongoClient.getDatabase("admin").runCommand(
-                new BasicDBObject("shardCollection", "sample_training.grades").
-                append("key", new BasicDBObject("student_id", 1)));
-            assert(result.get("OK").toString() == "1");
-
-            for (long id = 10000; id < 1000 * 1000; id += 10000) {
-                insertBulkOfStudents(id, id + 10000, gradesCollection);
+            BulkLoader loader = new BulkLoader(System.getProperty("mongodb.uri"), gradesCollection);
+            loader.setKeep(Filters.in("_id", seedIds()));
+            if (loader.isResuming()) {
+                System.out.println("Resuming an interrupted load, grades collection already set up.");
+            } else {
+                setUp(mongoClient, gradesCollection);
             }
+            loader.load(10000, 1000 * 1000);
         }
     }
 
-    private static void insertBulkOfStudents(long studentIdFrom, long studentIdTo, MongoCollection<Document> gradesCollection) {
-        List<Document> grades = new ArrayList<>();
-        for (long studentId = studentIdFrom; studentId <= studentIdTo; ++studentId) {
-            grades.add(generateNewGrade(studentId, 1d));
+    /**
+     * Inserts the grades of student 10001 and shards the collection, once per load.
+     */
+    private static void setUp(MongoClient mongoClient, MongoCollection<Document> gradesCollection) {
+        insertManyDocuments(gradesCollection);
+
+        // Create shard index.
+        gradesCollection.createIndex(Indexes.ascending("student_id"));
+        // Enable sharding.
+        Document result = 
+            mongoClient.getDatabase("admin").runCommand(new BasicDBObject("enablesharding", "sample_training")); 
+        assert(result.get("OK").toString() == "1");
+
+        // Shard collection.
+        result = mongoClient.getDatabase("admin").runCommand(
+            new BasicDBObject("shardCollection", "sample_training.grades").
+            append("key", new BasicDBObject("student_id", 1)));
+        assert(result.get("OK").toString() == "1");
+    }
+
+    /**
+     * @return the fixed ids of the grades of student 10001, in class order. They never match a loaded grade,
+     * whose ids are generated, so the loader can tell them apart.
+     */
+    private static List<ObjectId> seedIds() {
+        List<ObjectId> ids = new ArrayList<>();
+        for (int classId = 1; classId <= 10; classId++) {
+            ids.add(new ObjectId(String.format("%024x", classId)));
         }
-        gradesCollection.insertMany(grades, new InsertManyOptions().ordered(false));
-        System.out.println("Inserted for studentIds " + studentIdFrom + " to " + studentIdTo);
+        return ids;
     }
 
     private static void insertManyDocuments(MongoCollection<Document> gradesCollection) {
-        List<Document> grades = new ArrayList<>();
-        for (double classId = 1d; classId <= 10d; classId++) {
-            grades.add(generateNewGrade(10001d, classId));
+        // Upserts by id, a load that failed before its checkpoint was created may have inserted them already.
+        List<ReplaceOneModel<Document>> grades = new ArrayList<>();
+        List<ObjectId> ids = seedIds();
+        for (int i = 0; i < ids.size(); i++) {
+            Document grade = generateNewGrade(10001d, i + 1d).append("_id", ids.get(i));
+            grades.add(new ReplaceOneModel<>(Filters.eq("_id", ids.get(i)), grade,
+                new ReplaceOptions().upsert(true)));
         }
 
-        gradesCollection.insertMany(grades, new InsertManyOptions().ordered(false));
+        gradesCollection.bulkWrite(grades, new BulkWriteOptions().ordered(false));
         System.out.println("Ten grades inserted for studentId 10001.");
     }
 
-    private static Document generateNewGrade(double studentId, double classId) {
+    static Document generateNewGrade(double studentId, double classId) {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
         List<Document> scores = asList(new Document("type", "exam").append("score", rand.nextDouble() * 100),
                                        new Document("type", "quiz").append("score", rand.nextDouble() * 100),
                                        new Document("type", "homework").append("score", rand.nextDouble() * 100),
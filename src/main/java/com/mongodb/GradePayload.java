@@ -0,0 +1,193 @@
+package com.mongodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+
+/**
+ * Generates grade documents directly in their BSON form.
+ * <p>
+ * The document produced by {@link Create#generateNewGrade} is encoded once as a template. Every grade
+ * document has the same length, so a new one is a copy of the template with {@code _id},
+ * {@code student_id}, {@code class_id} and the scores patched in place. Nothing is allocated per
+ * document when writing into a pooled {@link Buffer}, and the driver sends the bytes of the
+ * {@link RawBsonDocument} views as they are instead of encoding a {@link org.bson.Document} tree.
+ */
+public class GradePayload {
+    private static final byte BSON_DOUBLE = 0x01;
+    private static final byte BSON_DOCUMENT = 0x03;
+    private static final byte BSON_ARRAY = 0x04;
+    private static final byte BSON_OBJECT_ID = 0x07;
+    private static final int SCORE_COUNT = 4;
+
+    private final byte[] template;
+    private int idOffset = -1;
+    private int studentIdOffset = -1;
+    private int classIdOffset = -1;
+    private final int[] scoreOffsets = new int[SCORE_COUNT];
+    private int scoreCount;
+
+    // ObjectId layout: 4 byte timestamp, 5 random bytes per process, 3 byte counter.
+    private final byte[] processId = new byte[5];
+    private final AtomicInteger idCounter = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+
+    public GradePayload() {
+        BasicOutputBuffer buffer = new BasicOutputBuffer(256);
+        new DocumentCodec().encode(new BsonBinaryWriter(buffer), Create.generateNewGrade(0d, 0d),
+            EncoderContext.builder().build());
+        template = buffer.toByteArray();
+        findFields(4, "");
+        if (idOffset < 0 || studentIdOffset < 0 || classIdOffset < 0 || scoreCount != SCORE_COUNT) {
+            throw new IllegalStateException("Unexpected grade document layout");
+        }
+        System.arraycopy(new ObjectId().toByteArray(), 4, processId, 0, processId.length);
+    }
+
+    /**
+     * Records the offsets of the patched values, walking the elements of the document starting at
+     * {@code position} up to its terminating 0.
+     */
+    private void findFields(int position, String path) {
+        while (template[position] != 0) {
+            byte type = template[position++];
+            int nameStart = position;
+            while (template[position] != 0) {
+                ++position;
+            }
+            String name = path + new String(template, nameStart, position - nameStart);
+            ++position;
+            switch (type) {
+                case BSON_DOUBLE:
+                    if (name.equals("student_id")) {
+                        studentIdOffset = position;
+                    } else if (name.equals("class_id")) {
+                        classIdOffset = position;
+                    } else if (name.endsWith(".score") && scoreCount < SCORE_COUNT) {
+                        scoreOffsets[scoreCount++] = position;
+                    }
+                    position += 8;
+                    break;
+                case BSON_OBJECT_ID:
+                    if (name.equals("_id")) {
+                        idOffset = position;
+                    }
+                    position += 12;
+                    break;
+                case BSON_DOCUMENT:
+                case BSON_ARRAY:
+                    findFields(position + 4, name + ".");
+                    position += readInt(position);
+                    break;
+                default:
+                    // Strings, the only other type in a grade.
+                    position += 4 + readInt(position);
+                    break;
+            }
+        }
+    }
+
+    private int readInt(int position) {
+        return (template[position] & 0xff) | (template[position + 1] & 0xff) << 8 |
+            (template[position + 2] & 0xff) << 16 | (template[position + 3] & 0xff) << 24;
+    }
+
+    /**
+     * @return size in bytes of every grade document.
+     */
+    public int length() {
+        return template.length;
+    }
+
+    /**
+     * Writes a new grade with a fresh {@code _id} and random scores at {@code offset} of {@code dest}.
+     */
+    public void write(byte[] dest, int offset, double studentId, double classId) {
+        System.arraycopy(template, 0, dest, offset, template.length);
+        writeObjectId(dest, offset + idOffset);
+        writeDouble(dest, offset + studentIdOffset, studentId);
+        writeDouble(dest, offset + classIdOffset, classId);
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        for (int i = 0; i < SCORE_COUNT; ++i) {
+            writeDouble(dest, offset + scoreOffsets[i], rand.nextDouble() * 100);
+        }
+    }
+
+    /**
+     * @return a grade in its own buffer, for one-off inserts.
+     */
+    public RawBsonDocument newGrade(double studentId, double classId) {
+        byte[] bytes = new byte[template.length];
+        write(bytes, 0, studentId, classId);
+        return new RawBsonDocument(bytes);
+    }
+
+    private void writeObjectId(byte[] dest, int offset) {
+        int timestamp = (int) (System.currentTimeMillis() / 1000);
+        int counter = idCounter.getAndIncrement();
+        // Big endian, as ObjectId does.
+        dest[offset] = (byte) (timestamp >>> 24);
+        dest[offset + 1] = (byte) (timestamp >>> 16);
+        dest[offset + 2] = (byte) (timestamp >>> 8);
+        dest[offset + 3] = (byte) timestamp;
+        System.arraycopy(processId, 0, dest, offset + 4, processId.length);
+        dest[offset + 9] = (byte) (counter >>> 16);
+        dest[offset + 10] = (byte) (counter >>> 8);
+        dest[offset + 11] = (byte) counter;
+    }
+
+    private static void writeDouble(byte[] dest, int offset, double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = 0; i < 8; ++i) {
+            dest[offset + i] = (byte) (bits >>> (8 * i));
+        }
+    }
+
+    /**
+     * Reusable space for a batch of grades. The {@link RawBsonDocument} views are created once and
+     * see the bytes written by {@link #fill}, so a buffer must not be refilled while a previous batch
+     * is still being inserted.
+     */
+    public class Buffer {
+        private final byte[] bytes;
+        private final List<RawBsonDocument> documents;
+
+        Buffer(int capacity) {
+            bytes = new byte[capacity * template.length];
+            documents = new ArrayList<RawBsonDocument>(capacity);
+            for (int i = 0; i < capacity; ++i) {
+                documents.add(new RawBsonDocument(bytes, i * template.length, template.length));
+            }
+        }
+
+        /**
+         * Writes grades for {@code count} students starting with {@code fromStudentId}.
+         *
+         * @return views of the written grades.
+         */
+        public List<RawBsonDocument> fill(long fromStudentId, int count, double classId) {
+            if (count > documents.size()) {
+                throw new IllegalArgumentException("Batch of " + count + " exceeds the buffer capacity " +
+                    documents.size());
+            }
+            for (int i = 0; i < count; ++i) {
+                write(bytes, i * template.length, fromStudentId + i, classId);
+            }
+            return documents.subList(0, count);
+        }
+    }
+
+    /**
+     * @param capacity maximal number of grades in a batch.
+     */
+    public Buffer newBuffer(int capacity) {
+        return new Buffer(capacity);
+    }
+}
@@ -16,7 +16,8 @@ import static com.mongodb.client.model.Sorts.descending;
 
 public class Read {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        StubServer.startIfEmbedded();
         try (MongoClient mongoClient = MongoClients.create(System.getProperty("mongodb.uri"))) {
             MongoDatabase sampleTrainingDB = mongoClient.getDatabase("sample_training");
             MongoCollection<Document> gradesCollection = sampleTrainingDB.getCollection("grades");
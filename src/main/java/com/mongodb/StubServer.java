@@ -0,0 +1,634 @@
+// Run with:
+//   mvn compile exec:java -Dexec.mainClass="com.mongodb.StubServer" -Dstub.port=27017 -Dstub.latency=exponential:500
+
+package com.mongodb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+/**
+ * Stands in for a standalone mongod speaking the wire protocol, so the generator can be run and
+ * measured without a cluster. It answers the handshake and the commands the entry points use with
+ * synthetic data: {@code find} returns grades for the requested student_id range, with inclusion
+ * projections applied, writes acknowledge every document, administrative commands just succeed.
+ * <p>
+ * Every connection is served by its own virtual thread. Open cursors belong to the connection that last
+ * used them and are dropped when it closes, killCursors or not. Options (system properties):
+ * <ul>
+ * <li>stub.port - port to listen on, 0 picks a free one (default 27017, 0 when embedded).</li>
+ * <li>stub.embedded - when true, {@link #startIfEmbedded()} starts the server inside the
+ * generator and points -Dmongodb.uri at it.</li>
+ * <li>stub.latency - response delay of the data commands, see {@link Latency}; can be set per
+ * command with stub.latency.&lt;command&gt;, e.g. stub.latency.update.</li>
+ * <li>stub.errorRate - fraction of data commands failing with stub.errorCode (default 50,
+ * MaxTimeMSExpired).</li>
+ * <li>stub.maxOpsPerSec - throughput cap of the data commands, excess requests queue up.</li>
+ * <li>stub.maxFindDocs - documents returned by an open ended find (default 1000).</li>
+ * </ul>
+ */
+public class StubServer implements AutoCloseable {
+    public static final String PORT_PROPERTY = "stub.port";
+    public static final String EMBEDDED_PROPERTY = "stub.embedded";
+    public static final String LATENCY_PROPERTY = "stub.latency";
+    public static final String ERROR_RATE_PROPERTY = "stub.errorRate";
+    public static final String ERROR_CODE_PROPERTY = "stub.errorCode";
+    public static final String MAX_OPS_PROPERTY = "stub.maxOpsPerSec";
+    public static final String MAX_FIND_DOCS_PROPERTY = "stub.maxFindDocs";
+
+    private static final int OP_REPLY = 1;
+    private static final int OP_QUERY = 2004;
+    private static final int OP_MSG = 2013;
+    private static final int CHECKSUM_PRESENT = 1;
+    private static final int MORE_TO_COME = 1 << 1;
+    private static final int DEFAULT_BATCH_SIZE = 101;
+    private static final int MAX_WIRE_VERSION = 9;
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    // Commands that are delayed, capped and may fail. The others answer right away.
+    private static final Set<String> DATA_COMMANDS = new HashSet<String>(Arrays.asList(
+        "find", "getMore", "insert", "update", "delete", "bulkWrite"));
+
+    private final ServerSocket serverSocket;
+    private final Map<String, Latency> latencies = new ConcurrentHashMap<String, Latency>();
+    private final Latency defaultLatency;
+    private final double errorRate;
+    private final int errorCode;
+    private final long opIntervalNanos;
+    private final AtomicLong nextOpSlot = new AtomicLong(System.nanoTime());
+    private final int maxFindDocs;
+
+    private final GradePayload payload = new GradePayload();
+    private final Map<Long, Cursor> cursors = new ConcurrentHashMap<Long, Cursor>();
+    private final AtomicLong cursorIds = new AtomicLong(1);
+    private final AtomicInteger connectionIds = new AtomicInteger();
+    private final Map<String, LongAdder> commandCounts = new ConcurrentHashMap<String, LongAdder>();
+    private final LongAdder injectedErrors = new LongAdder();
+    private volatile boolean closed;
+
+    public StubServer(int port) throws IOException {
+        defaultLatency = Latency.fromSpec(System.getProperty(LATENCY_PROPERTY, "none"));
+        for (String command : DATA_COMMANDS) {
+            String spec = System.getProperty(LATENCY_PROPERTY + "." + command);
+            latencies.put(command, spec == null ? defaultLatency : Latency.fromSpec(spec));
+        }
+        errorRate = Double.parseDouble(System.getProperty(ERROR_RATE_PROPERTY, "0"));
+        errorCode = Integer.getInteger(ERROR_CODE_PROPERTY, 50);
+        double maxOps = Double.parseDouble(System.getProperty(MAX_OPS_PROPERTY, "0"));
+        opIntervalNanos = maxOps > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / maxOps) : 0;
+        maxFindDocs = Integer.getInteger(MAX_FIND_DOCS_PROPERTY, 1000);
+
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        Thread acceptor = new Thread(this::accept, "stub-server-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Starts an embedded server if -Dstub.embedded=true and sets -Dmongodb.uri to it, so an
+     * entry point runs unchanged against the stub. Call first thing in main.
+     *
+     * @return the server, or null when not embedded.
+     */
+    public static StubServer startIfEmbedded() throws IOException {
+        if (!Boolean.getBoolean(EMBEDDED_PROPERTY)) {
+            return null;
+        }
+        StubServer server = new StubServer(Integer.getInteger(PORT_PROPERTY, 0));
+        System.setProperty("mongodb.uri", "mongodb://127.0.0.1:" + server.getPort() + "/test");
+        System.out.println("Embedded stub server on " + System.getProperty("mongodb.uri") + " " + server.describe());
+        return server;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    String describe() {
+        return String.format("latency %s, error rate %s, max ops/sec %s", latencies, errorRate,
+            opIntervalNanos > 0 ? String.valueOf(TimeUnit.SECONDS.toNanos(1) / opIntervalNanos) : "unlimited");
+    }
+
+    /**
+     * @return commands served so far by name, and the injected errors.
+     */
+    public String summary() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, LongAdder> entry : commandCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return "Stub server commands: " + counts + " injected errors: " + injectedErrors.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                int connectionId = connectionIds.incrementAndGet();
+                Thread.ofVirtual().name("stub-connection-" + connectionId)
+                    .start(() -> serve(socket, connectionId));
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("Stub server accept failure: " + e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket, int connectionId) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), 64 * 1024);
+            byte[] header = new byte[16];
+            while (!closed) {
+                in.readFully(header);
+                int length = readInt(header, 0);
+                int requestId = readInt(header, 4);
+                int opCode = readInt(header, 12);
+                byte[] body = new byte[length - header.length];
+                in.readFully(body);
+                if (opCode == OP_MSG) {
+                    onMessage(body, requestId, connectionId, out);
+                } else if (opCode == OP_QUERY) {
+                    onQuery(body, requestId, connectionId, out);
+                } else {
+                    throw new IOException("Unsupported op code " + opCode);
+                }
+            }
+        } catch (EOFException e) {
+            // Client closed the connection.
+        } catch (IOException e) {
+            if (!closed) {
+                System.out.println("Stub server connection failure: " + e);
+            }
+        } catch (RuntimeException e) {
+            // A request the stub can't handle, the client only sees the connection closing.
+            System.out.println("Stub server request failure on connection " + connectionId + ": " + e);
+            e.printStackTrace();
+        } finally {
+            cursors.values().removeIf(cursor -> cursor.connectionId == connectionId);
+        }
+    }
+
+    /**
+     * Legacy OP_QUERY, only used by the driver for the initial handshake.
+     */
+    private void onQuery(byte[] body, int requestId, int connectionId, OutputStream out) throws IOException {
+        int position = 4;
+        while (body[position] != 0) {
+            ++position;
+        }
+        position += 1 + 8;
+        RawBsonDocument query = new RawBsonDocument(body, position, readInt(body, position));
+        BsonDocument response = execute(query, 0, connectionId);
+
+        BasicOutputBuffer buffer = new BasicOutputBuffer(512);
+        writeHeader(buffer, requestId, OP_REPLY);
+        buffer.writeInt32(0);
+        buffer.writeInt64(0);
+        buffer.writeInt32(0);
+        buffer.writeInt32(1);
+        encode(buffer, response);
+        send(buffer, out);
+    }
+
+    private void onMessage(byte[] body, int requestId, int connectionId, OutputStream out) throws IOException {
+        int flags = readInt(body, 0);
+        int end = body.length - ((flags & CHECKSUM_PRESENT) != 0 ? 4 : 0);
+        RawBsonDocument command = null;
+        // Documents of the kind 1 sections (insert documents, update statements...).
+        int sequenceDocuments = 0;
+        int position = 4;
+        while (position < end) {
+            byte kind = body[position++];
+            int size = readInt(body, position);
+            if (kind == 0) {
+                command = new RawBsonDocument(body, position, size);
+            } else {
+                int documentsEnd = position + size;
+                int documentPosition = position + 4;
+                while (body[documentPosition] != 0) {
+                    ++documentPosition;
+                }
+                for (++documentPosition; documentPosition < documentsEnd;
+                     documentPosition += readInt(body, documentPosition)) {
+                    ++sequenceDocuments;
+                }
+            }
+            position += size;
+        }
+        if (command == null) {
+            throw new IOException("OP_MSG without a body section");
+        }
+        BsonDocument response = execute(command, sequenceDocuments, connectionId);
+        if ((flags & MORE_TO_COME) != 0) {
+            // Unacknowledged write, no reply expected.
+            return;
+        }
+        BasicOutputBuffer buffer = new BasicOutputBuffer(1024);
+        writeHeader(buffer, requestId, OP_MSG);
+        buffer.writeInt32(0);
+        buffer.writeByte(0);
+        encode(buffer, response);
+        send(buffer, out);
+    }
+
+    private BsonDocument execute(RawBsonDocument command, int sequenceDocuments, int connectionId) {
+        String name = command.getFirstKey();
+        commandCounts.computeIfAbsent(name, k -> new LongAdder()).increment();
+        if (DATA_COMMANDS.contains(name)) {
+            long start = System.nanoTime();
+            awaitOpSlot();
+            long delay = latencies.get(name).nextNanos() - (System.nanoTime() - start);
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                injectedErrors.increment();
+                return new BsonDocument("ok", new BsonDouble(0))
+                    .append("errmsg", new BsonString("Error injected by the stub server"))
+                    .append("code", new BsonInt32(errorCode));
+            }
+        }
+        switch (name) {
+            case "isMaster":
+            case "ismaster":
+            case "hello":
+                return hello(connectionId);
+            case "find":
+                return find(command, connectionId);
+            case "getMore":
+                return getMore(command, connectionId);
+            case "insert":
+            case "update":
+            case "delete":
+                return write(command, name, sequenceDocuments);
+            case "bulkWrite":
+                return ok().append("cursor", new BsonDocument("firstBatch", new BsonArray())
+                        .append("id", new BsonInt64(0))
+                        .append("ns", new BsonString("admin.$cmd.bulkWrite")))
+                    .append("nErrors", new BsonInt32(0))
+                    .append("nInserted", new BsonInt32(0))
+                    .append("nMatched", new BsonInt32(sequenceDocuments))
+                    .append("nModified", new BsonInt32(sequenceDocuments))
+                    .append("nUpserted", new BsonInt32(0))
+                    .append("nDeleted", new BsonInt32(0));
+            case "killCursors":
+                BsonArray killed = new BsonArray();
+                for (BsonValue id : command.getArray("cursors")) {
+                    if (cursors.remove(id.asInt64().getValue()) != null) {
+                        killed.add(id);
+                    }
+                }
+                return ok().append("cursorsKilled", killed);
+            case "buildInfo":
+            case "buildinfo":
+                return ok().append("version", new BsonString("4.4.0"))
+                    .append("versionArray", new BsonArray(Arrays.asList(new BsonInt32(4), new BsonInt32(4),
+                        new BsonInt32(0), new BsonInt32(0))));
+            case "listDatabases":
+                return ok().append("databases", new BsonArray()).append("totalSize", new BsonInt64(0));
+            default:
+                // ping, endSessions, createIndexes, enableSharding, shardCollection...
+                return ok();
+        }
+    }
+
+    private static BsonDocument ok() {
+        return new BsonDocument("ok", new BsonDouble(1));
+    }
+
+    private BsonDocument hello(int connectionId) {
+        return new BsonDocument("ismaster", BsonBoolean.TRUE)
+            .append("maxBsonObjectSize", new BsonInt32(16 * 1024 * 1024))
+            .append("maxMessageSizeBytes", new BsonInt32(48000000))
+            .append("maxWriteBatchSize", new BsonInt32(100000))
+            .append("localTime", new BsonDateTime(System.currentTimeMillis()))
+            .append("logicalSessionTimeoutMinutes", new BsonInt32(30))
+            .append("connectionId", new BsonInt32(connectionId))
+            .append("minWireVersion", new BsonInt32(0))
+            .append("maxWireVersion", new BsonInt32(MAX_WIRE_VERSION))
+            .append("readOnly", BsonBoolean.FALSE)
+            .append("ok", new BsonDouble(1));
+    }
+
+    /**
+     * Documents left in an open cursor: grades of consecutive student ids.
+     */
+    static class Cursor {
+        final String ns;
+        // Included fields, null for whole documents.
+        final BsonDocument projection;
+        long nextStudentId;
+        long remaining;
+        // Connection that last used the cursor, its owner.
+        volatile int connectionId;
+
+        Cursor(String ns, BsonDocument projection, long nextStudentId, long remaining, int connectionId) {
+            this.ns = ns;
+            this.projection = projection;
+            this.nextStudentId = nextStudentId;
+            this.remaining = remaining;
+            this.connectionId = connectionId;
+        }
+    }
+
+    private BsonDocument find(RawBsonDocument command, int connectionId) {
+        String ns = command.getString("$db", new BsonString("test")).getValue() + "." +
+            command.getString("find").getValue();
+        BsonDocument filter = command.getDocument("filter", new BsonDocument());
+        // Bounds of student_id over the filter and its $and clauses, as sent by ReadQuery.filter.
+        List<BsonDocument> clauses = new ArrayList<BsonDocument>();
+        clauses.add(filter);
+        BsonValue and = filter.get("$and");
+        if (and != null && and.isArray()) {
+            for (BsonValue clause : and.asArray()) {
+                if (clause.isDocument()) {
+                    clauses.add(clause.asDocument());
+                }
+            }
+        }
+        long low = Long.MIN_VALUE;
+        long high = Long.MAX_VALUE;
+        for (BsonDocument clause : clauses) {
+            BsonValue studentId = clause.get("student_id");
+            if (studentId != null && studentId.isNumber()) {
+                low = Math.max(low, studentId.asNumber().longValue());
+                high = Math.min(high, studentId.asNumber().longValue());
+            } else if (studentId != null && studentId.isDocument()) {
+                BsonDocument range = studentId.asDocument();
+                low = Math.max(low, bound(range, "$gte", 0, Long.MIN_VALUE));
+                low = Math.max(low, bound(range, "$gt", 1, Long.MIN_VALUE));
+                high = Math.min(high, bound(range, "$lte", 0, Long.MAX_VALUE));
+                high = Math.min(high, bound(range, "$lt", -1, Long.MAX_VALUE));
+            }
+        }
+        long from = low == Long.MIN_VALUE ? 0 : low;
+        long count = high == Long.MAX_VALUE ? maxFindDocs : Math.max(0, Math.min(maxFindDocs, high - from + 1));
+        long limit = Math.abs(numberOr(command.get("limit"), 0));
+        if (limit > 0) {
+            count = Math.min(count, limit);
+        }
+        BsonDocument projection = command.getDocument("projection", new BsonDocument());
+        Cursor cursor = new Cursor(ns, projection.isEmpty() ? null : projection, from, count, connectionId);
+        long batchSize = numberOr(command.get("batchSize"), DEFAULT_BATCH_SIZE);
+        BsonArray batch = nextBatch(cursor, batchSize);
+        boolean singleBatch = command.getBoolean("singleBatch", BsonBoolean.FALSE).getValue();
+        return ok().append("cursor", new BsonDocument("firstBatch", batch)
+            .append("id", new BsonInt64(register(cursor, singleBatch)))
+            .append("ns", new BsonString(ns)));
+    }
+
+    private static long bound(BsonDocument range, String operator, int adjust, long missing) {
+        BsonValue value = range.get(operator);
+        return value != null && value.isNumber() ? value.asNumber().longValue() + adjust : missing;
+    }
+
+    private static long numberOr(BsonValue value, long missing) {
+        return value != null && value.isNumber() ? value.asNumber().longValue() : missing;
+    }
+
+    private BsonDocument getMore(RawBsonDocument command, int connectionId) {
+        long id = command.getInt64("getMore").getValue();
+        Cursor cursor = cursors.remove(id);
+        if (cursor == null) {
+            return new BsonDocument("ok", new BsonDouble(0))
+                .append("errmsg", new BsonString("cursor id " + id + " not found"))
+                .append("code", new BsonInt32(43))
+                .append("codeName", new BsonString("CursorNotFound"));
+        }
+        cursor.connectionId = connectionId;
+        BsonArray batch = nextBatch(cursor, numberOr(command.get("batchSize"), Long.MAX_VALUE));
+        return ok().append("cursor", new BsonDocument("nextBatch", batch)
+            .append("id", new BsonInt64(register(cursor, false)))
+            .append("ns", new BsonString(cursor.ns)));
+    }
+
+    private BsonArray nextBatch(Cursor cursor, long batchSize) {
+        int size = (int) Math.min(cursor.remaining, batchSize <= 0 ? Long.MAX_VALUE : batchSize);
+        BsonArray batch = new BsonArray();
+        for (int i = 0; i < size; ++i) {
+            RawBsonDocument grade = payload.newGrade(cursor.nextStudentId++, 1d);
+            batch.add(cursor.projection == null ? grade : project(grade, cursor.projection));
+        }
+        cursor.remaining -= size;
+        return batch;
+    }
+
+    private static BsonDocument project(RawBsonDocument grade, BsonDocument projection) {
+        BsonDocument projected = new BsonDocument("_id", grade.get("_id"));
+        for (String field : projection.keySet()) {
+            BsonValue value = grade.get(field);
+            if (value != null) {
+                projected.put(field, value);
+            }
+        }
+        return projected;
+    }
+
+    /**
+     * @return id to report for the cursor, 0 if it is exhausted.
+     */
+    private long register(Cursor cursor, boolean close) {
+        if (cursor.remaining <= 0 || close) {
+            return 0;
+        }
+        long id = cursorIds.getAndIncrement();
+        cursors.put(id, cursor);
+        return id;
+    }
+
+    private static BsonDocument write(RawBsonDocument command, String name, int sequenceDocuments) {
+        String field = name.equals("insert") ? "documents" : name.equals("update") ? "updates" : "deletes";
+        int n = sequenceDocuments;
+        if (n == 0 && command.containsKey(field)) {
+            n = command.getArray(field).size();
+        }
+        BsonDocument response = ok().append("n", new BsonInt32(name.equals("delete") ? 0 : n));
+        if (name.equals("update")) {
+            response.append("nModified", new BsonInt32(n));
+        }
+        return response;
+    }
+
+    /**
+     * Waits for the next slot under stub.maxOpsPerSec. Unlike an open loop schedule, idle time is
+     * not banked, so the cap also holds right after a pause.
+     */
+    private void awaitOpSlot() {
+        if (opIntervalNanos == 0) {
+            return;
+        }
+        long slot;
+        while (true) {
+            long next = nextOpSlot.get();
+            slot = Math.max(next, System.nanoTime());
+            if (nextOpSlot.compareAndSet(next, slot + opIntervalNanos)) {
+                break;
+            }
+        }
+        long delay;
+        while ((delay = slot - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(delay);
+        }
+    }
+
+    private static void writeHeader(BasicOutputBuffer buffer, int responseTo, int opCode) {
+        buffer.writeInt32(0);
+        buffer.writeInt32(0);
+        buffer.writeInt32(responseTo);
+        buffer.writeInt32(opCode);
+    }
+
+    private static void encode(BasicOutputBuffer buffer, BsonDocument document) {
+        CODEC.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+    }
+
+    private static void send(BasicOutputBuffer buffer, OutputStream out) throws IOException {
+        buffer.writeInt32(0, buffer.getPosition());
+        buffer.pipe(out);
+        out.flush();
+    }
+
+    private static int readInt(byte[] bytes, int position) {
+        return (bytes[position] & 0xff) | (bytes[position + 1] & 0xff) << 8 |
+            (bytes[position + 2] & 0xff) << 16 | (bytes[position + 3] & 0xff) << 24;
+    }
+
+    /**
+     * Response delay distribution, from a spec in microseconds:
+     * <ul>
+     * <li>none - no delay (default).</li>
+     * <li>fixed:&lt;us&gt;</li>
+     * <li>uniform:&lt;min us&gt;:&lt;max us&gt;</li>
+     * <li>exponential:&lt;mean us&gt;</li>
+     * <li>lognormal:&lt;median us&gt;:&lt;sigma&gt; - long tailed, sigma 1 puts p99 at about 10x the median.</li>
+     * </ul>
+     */
+    public abstract static class Latency {
+        private final String spec;
+
+        Latency(String spec) {
+            this.spec = spec;
+        }
+
+        /**
+         * @return a delay drawn from the distribution.
+         */
+        public abstract long nextNanos();
+
+        @Override
+        public String toString() {
+            return spec;
+        }
+
+        public static Latency fromSpec(String spec) {
+            String[] fields = spec.split(":");
+            try {
+                switch (fields[0]) {
+                    case "none":
+                        return fixed(spec, 0);
+                    case "fixed":
+                        return fixed(spec, Long.parseLong(fields[1]) * 1000);
+                    case "uniform": {
+                        long min = Long.parseLong(fields[1]) * 1000;
+                        long max = Long.parseLong(fields[2]) * 1000;
+                        return new Latency(spec) {
+                            @Override
+                            public long nextNanos() {
+                                return min + ThreadLocalRandom.current().nextLong(max - min + 1);
+                            }
+                        };
+                    }
+                    case "exponential": {
+                        double mean = Double.parseDouble(fields[1]) * 1000;
+                        return new Latency(spec) {
+                            @Override
+                            public long nextNanos() {
+                                return (long) (-mean * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+                            }
+                        };
+                    }
+                    case "lognormal": {
+                        double mu = Math.log(Double.parseDouble(fields[1]) * 1000);
+                        double sigma = Double.parseDouble(fields[2]);
+                        return new Latency(spec) {
+                            @Override
+                            public long nextNanos() {
+                                return (long) Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
+                            }
+                        };
+                    }
+                    default:
+                        break;
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                // Reported below.
+            }
+            throw new IllegalArgumentException("Invalid latency: " + spec);
+        }
+
+        private static Latency fixed(String spec, long nanos) {
+            return new Latency(spec) {
+                @Override
+                public long nextNanos() {
+                    return nanos;
+                }
+            };
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        try (StubServer server = new StubServer(Integer.getInteger(PORT_PROPERTY, 27017))) {
+            System.out.println("Stub server listening on port " + server.getPort() + " " + server.describe());
+            while (true) {
+                Thread.sleep(10000);
+                System.out.println(server.summary());
+            }
+        }
+    }
+}
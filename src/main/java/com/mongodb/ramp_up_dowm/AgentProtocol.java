@@ -0,0 +1,129 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Messages between the {@link LoadCoordinator} and its {@link LoadAgent}s over a plain TCP connection.
+ * The agent opens with the magic number, then every message is a type byte followed by its fields:
+ * <ul>
+ * <li>HELLO, agent to coordinator: agent name.</li>
+ * <li>TARGET, coordinator to agent: phase name and concurrency target of the agent, 0 to stop.</li>
+ * <li>SAMPLE, agent to coordinator: time, report values and interval latency histograms of one second.
+ * Histograms are sent in the HdrHistogram compressed encoding, about 1 KB each.</li>
+ * <li>DONE, agent to coordinator: the agent stopped, its last sample was sent.</li>
+ * </ul>
+ */
+final class AgentProtocol {
+    static final int MAGIC = 0x52554431; // RUD1
+    static final byte HELLO = 'H';
+    static final byte TARGET = 'T';
+    static final byte SAMPLE = 'S';
+    static final byte DONE = 'D';
+
+    /**
+     * One second of an agent.
+     */
+    static class Sample {
+        final long millis;
+        final Map<String, Long> values;
+        final Map<String, Histogram> intervals;
+        // Coordinator clock, for the round timeout.
+        final long receivedMillis = System.currentTimeMillis();
+
+        Sample(long millis, Map<String, Long> values, Map<String, Histogram> intervals) {
+            this.millis = millis;
+            this.values = values;
+            this.intervals = intervals;
+        }
+    }
+
+    private AgentProtocol() {
+    }
+
+    static void writeHello(DataOutputStream out, String name) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(HELLO);
+        out.writeUTF(name);
+        out.flush();
+    }
+
+    /**
+     * @return the agent name.
+     * @throws IOException if the peer is not an agent.
+     */
+    static String readHello(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readByte() != HELLO) {
+            throw new IOException("Not a load agent");
+        }
+        return in.readUTF();
+    }
+
+    static void writeTarget(DataOutputStream out, String phase, int target) throws IOException {
+        out.writeByte(TARGET);
+        out.writeUTF(phase);
+        out.writeInt(target);
+        out.flush();
+    }
+
+    static void writeSample(DataOutputStream out, long millis, Map<String, Long> values,
+            Map<String, Histogram> intervals) throws IOException {
+        out.writeByte(SAMPLE);
+        out.writeLong(millis);
+        out.writeInt(values.size());
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+        out.writeInt(intervals.size());
+        for (Map.Entry<String, Histogram> entry : intervals.entrySet()) {
+            Histogram h = entry.getValue();
+            ByteBuffer buffer = ByteBuffer.allocate(h.getNeededByteBufferCapacity());
+            int length = h.encodeIntoCompressedByteBuffer(buffer);
+            out.writeUTF(entry.getKey());
+            out.writeLong(h.getStartTimeStamp());
+            out.writeLong(h.getEndTimeStamp());
+            out.writeInt(length);
+            out.write(buffer.array(), 0, length);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads the fields of a SAMPLE, after its type byte.
+     */
+    static Sample readSample(DataInputStream in) throws IOException {
+        long millis = in.readLong();
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        for (int i = in.readInt(); i > 0; --i) {
+            values.put(in.readUTF(), in.readLong());
+        }
+        Map<String, Histogram> intervals = new LinkedHashMap<String, Histogram>();
+        for (int i = in.readInt(); i > 0; --i) {
+            String type = in.readUTF();
+            long start = in.readLong();
+            long end = in.readLong();
+            byte[] encoded = new byte[in.readInt()];
+            in.readFully(encoded);
+            Histogram h;
+            try {
+                h = Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(encoded),
+                    LatencyHistogram.HIGHEST_TRACKABLE_US);
+            } catch (DataFormatException e) {
+                throw new IOException("Bad " + type + " histogram", e);
+            }
+            h.setTag(type);
+            h.setStartTimeStamp(start);
+            h.setEndTimeStamp(end);
+            intervals.put(type, h);
+        }
+        return new Sample(millis, values, intervals);
+    }
+}
@@ -0,0 +1,60 @@
+package com.mongodb.ramp_up_dowm;
+
+/**
+ * Additive increase, multiplicative decrease: grows the target by a fixed step every second while
+ * p99 latency and error rate are within their limits, and cuts it by a factor when either is
+ * exceeded. Ramp up ends at the first cut; STRESS keeps adjusting, so the target oscillates just
+ * below the highest concurrency the latency limit allows.
+ */
+public class AimdController implements ConcurrencyController {
+    static final double DECREASE_FACTOR = 0.75;
+
+    private final long latencyLimitUs;
+    private final double errorRateLimit;
+    private boolean saturated = false;
+    private int bestThroughput = 0;
+    private int bestTarget = 0;
+
+    public AimdController(long latencyLimitUs, double errorRateLimit) {
+        this.latencyLimitUs = latencyLimitUs;
+        this.errorRateLimit = errorRateLimit;
+    }
+
+    @Override
+    public int rampUp(int current, Sample sample) {
+        return adjust(current, sample);
+    }
+
+    @Override
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    @Override
+    public int onSaturated(int current) {
+        return current;
+    }
+
+    @Override
+    public int stress(int current, Sample sample) {
+        return adjust(current, sample);
+    }
+
+    private int adjust(int current, Sample sample) {
+        if (sample.p99LatencyUs > latencyLimitUs || sample.errorRate > errorRateLimit) {
+            saturated = true;
+            return Math.max(1, (int) (current * DECREASE_FACTOR));
+        }
+        if (sample.throughput > bestThroughput) {
+            bestThroughput = sample.throughput;
+            bestTarget = current;
+        }
+        return current + ConnectionTarget.CONNECTION_RAMP_UP_PER_SEC;
+    }
+
+    @Override
+    public String describe() {
+        return String.format("aimd: best %d ops/sec within p99 %d us at concurrency %d",
+            bestThroughput, latencyLimitUs, bestTarget);
+    }
+}
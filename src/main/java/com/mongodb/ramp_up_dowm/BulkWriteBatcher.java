@@ -0,0 +1,156 @@
+package com.mongodb.ramp_up_dowm;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Updates.set;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.bulk.BulkWriteResult;
+
+import org.bson.Document;
+
+/**
+ * Groups the updates of one write worker into {@code bulkWrite} batches. A batch is sent when it
+ * is full or when its oldest update waited for the flush interval. Each batch is recorded in the
+ * {@code writeBatch} histogram and each document in the {@code write} histogram, measured from
+ * the time the document was added (or its intended start in open loop mode) to the batch result.
+ */
+public class BulkWriteBatcher {
+    public static final String MODE_PROPERTY = "write.mode";
+    public static final String BATCH_SIZE_PROPERTY = "write.batchSize";
+    public static final String ORDERED_PROPERTY = "write.ordered";
+    public static final String FLUSH_INTERVAL_PROPERTY = "write.flushIntervalMs";
+
+    /**
+     * Bulk write configuration, shared by all write workers.
+     */
+    static class Settings {
+        final int batchSize;
+        final boolean ordered;
+        final long flushIntervalNanos;
+
+        Settings(int batchSize, boolean ordered, long flushIntervalMs) {
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("Batch size must be a positive value: " + batchSize);
+            }
+            this.batchSize = batchSize;
+            this.ordered = ordered;
+            this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        }
+
+        /**
+         * @return the settings, or null when -Dwrite.mode is not bulk.
+         */
+        static Settings fromSystemProperties() {
+            if (!"bulk".equalsIgnoreCase(System.getProperty(MODE_PROPERTY, "single"))) {
+                return null;
+            }
+            return new Settings(Integer.getInteger(BATCH_SIZE_PROPERTY, 100),
+                Boolean.parseBoolean(System.getProperty(ORDERED_PROPERTY, "false")),
+                Long.getLong(FLUSH_INTERVAL_PROPERTY, 100));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("bulk write batchSize=%d ordered=%b flushIntervalMs=%d",
+                batchSize, ordered, TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos));
+        }
+    }
+
+    private final MongoCollection<Document> collection;
+    private final Settings settings;
+    private final LatencyHistogram documentLatency;
+    private final LatencyHistogram batchLatency;
+    private final EventCounter writes;
+    private final EventCounter batches;
+    private final List<WriteModel<Document>> pending;
+    private final long[] pendingStarts;
+    private final long[] pendingKeys;
+    // Null unless operations are traced.
+    private final OpTrace trace;
+
+    BulkWriteBatcher(MongoCollection<Document> collection, Settings settings, Stats stats, OpTrace trace) {
+        this.collection = collection;
+        this.settings = settings;
+        this.documentLatency = stats.latencyHistogram("write");
+        this.batchLatency = stats.latencyHistogram("writeBatch");
+        this.writes = stats.counter("writes");
+        this.batches = stats.counter("writeBatches");
+        this.pending = new ArrayList<WriteModel<Document>>(settings.batchSize);
+        this.pendingStarts = new long[settings.batchSize];
+        this.pendingKeys = new long[settings.batchSize];
+        this.trace = trace;
+    }
+
+    /**
+     * Adds an update of the class_id of a student to the batch, sending the batch first if it is
+     * already full.
+     *
+     * @param startNanos when the update was issued, in {@link System#nanoTime()} units.
+     */
+    void add(long studentId, long startNanos) {
+        if (isFull()) {
+            flush();
+        }
+        pendingStarts[pending.size()] = startNanos;
+        pendingKeys[pending.size()] = studentId;
+        pending.add(new UpdateOneModel<Document>(eq("student_id", studentId),
+            set("class_id", ThreadLocalRandom.current().nextInt(10))));
+    }
+
+    boolean isFull() {
+        return pending.size() >= settings.batchSize;
+    }
+
+    /**
+     * @return true if the oldest pending update waited for the flush interval.
+     */
+    boolean isDue(long nowNanos) {
+        return !pending.isEmpty() && nowNanos - pendingStarts[0] >= settings.flushIntervalNanos;
+    }
+
+    /**
+     * @return when the oldest pending update will have waited for the flush interval, in
+     * {@link System#nanoTime()} units, {@link Long#MAX_VALUE} when nothing is pending.
+     */
+    long getDueNanos() {
+        return pending.isEmpty() ? Long.MAX_VALUE : pendingStarts[0] + settings.flushIntervalNanos;
+    }
+
+    /**
+     * Sends the pending updates, if any.
+     */
+    void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long batchStart = System.nanoTime();
+        boolean ok = false;
+        try {
+            BulkWriteResult result = collection.bulkWrite(pending, new BulkWriteOptions().ordered(settings.ordered));
+            long end = System.nanoTime();
+            batchLatency.recordNanos(end - batchStart);
+            for (int i = 0; i < pending.size(); ++i) {
+                documentLatency.recordNanos(end - pendingStarts[i]);
+            }
+            writes.add(result.getModifiedCount());
+            batches.increment();
+            ok = true;
+        } finally {
+            if (trace != null) {
+                long end = System.nanoTime();
+                for (int i = 0; i < pending.size(); ++i) {
+                    trace.record(OpTrace.WRITE, pendingStarts[i], pendingKeys[i], 0, end - pendingStarts[i], ok);
+                }
+            }
+            pending.clear();
+        }
+    }
+}
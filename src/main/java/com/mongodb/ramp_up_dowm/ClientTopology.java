@@ -0,0 +1,199 @@
+package com.mongodb.ramp_up_dowm;
+
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.connection.ClusterSettings;
+import com.mongodb.connection.ConnectionPoolSettings;
+
+import org.bson.Document;
+
+/**
+ * The set of {@link MongoClient}s shared by the workers. Every client has its own pool and monitor
+ * connections, so the client count alone changes the load on the cluster. Options:
+ * <ul>
+ * <li>clients.count - number of clients (default 200).</li>
+ * <li>clients.poolSize - maximal pool size of each client (default 40).</li>
+ * <li>clients.mapping - which client runs an operation: random (default) picks one per operation,
+ * roundRobin cycles through them per operation, sticky keeps one client per worker.</li>
+ * <li>clients.startupThreads - clients created in parallel (default 16).</li>
+ * <li>clients.startupTimeoutSec - limit for creating all clients, retries included (default 120).</li>
+ * </ul>
+ */
+public class ClientTopology {
+    public static final String COUNT_PROPERTY = "clients.count";
+    public static final String POOL_SIZE_PROPERTY = "clients.poolSize";
+    public static final String MAPPING_PROPERTY = "clients.mapping";
+    public static final String STARTUP_THREADS_PROPERTY = "clients.startupThreads";
+    public static final String STARTUP_TIMEOUT_PROPERTY = "clients.startupTimeoutSec";
+    public static final String STARTUP_KEY = "clientStartupMs";
+
+    enum Mapping {
+        RANDOM, ROUNDROBIN, STICKY
+    }
+
+    private final DriverMetrics driverMetrics;
+    private final int poolSize;
+    private final Mapping mapping;
+    private final long timeoutNanos;
+    private final AtomicReferenceArray<MongoClient> clients;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final AtomicInteger nextClient = new AtomicInteger();
+    private long startupMillis;
+
+    public ClientTopology(DriverMetrics driverMetrics) {
+        this.driverMetrics = driverMetrics;
+        this.poolSize = Integer.getInteger(POOL_SIZE_PROPERTY, 40);
+        String mappingName = System.getProperty(MAPPING_PROPERTY, "random");
+        try {
+            this.mapping = Mapping.valueOf(mappingName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown " + MAPPING_PROPERTY + ": " + mappingName);
+        }
+        this.timeoutNanos = TimeUnit.SECONDS.toNanos(Integer.getInteger(STARTUP_TIMEOUT_PROPERTY, 120));
+        this.clients = new AtomicReferenceArray<MongoClient>(Integer.getInteger(COUNT_PROPERTY, 200));
+    }
+
+    /**
+     * Creates all clients in parallel, each one checked with a test read.
+     *
+     * @throws TimeoutException if they are not all up within clients.startupTimeoutSec.
+     * @throws ExecutionException if a client could not be created, with the last failure as its cause.
+     */
+    public void start() throws Exception {
+        long start = System.nanoTime();
+        long deadline = start + timeoutNanos;
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(clients.length(), Integer.getInteger(STARTUP_THREADS_PROPERTY, 16))));
+        try {
+            List<Future<MongoClient>> futures = new ArrayList<Future<MongoClient>>();
+            for (int i = 0; i < clients.length(); ++i) {
+                futures.add(executor.submit(() -> createClient(deadline)));
+            }
+            for (int i = 0; i < futures.size(); ++i) {
+                long remaining = deadline - System.nanoTime();
+                try {
+                    clients.set(i, futures.get(i).get(Math.max(remaining, 0), TimeUnit.NANOSECONDS));
+                } catch (ExecutionException e) {
+                    throw new ExecutionException("Client " + i + " failed to start", e.getCause());
+                } catch (TimeoutException e) {
+                    throw new TimeoutException("Only " + i + " of " + clients.length() + " clients started in " +
+                        TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + " sec");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("Initialized " + describe());
+    }
+
+    /**
+     * Creates a client, retrying until its test read succeeds or the deadline passes.
+     */
+    private MongoClient createClient(long deadline) throws Exception {
+        ConnectionPoolSettings settings = ConnectionPoolSettings.builder()
+            .maxConnectionIdleTime(30000, TimeUnit.MILLISECONDS)
+            .maxSize(poolSize)
+            .maxWaitTime(60000, TimeUnit.MILLISECONDS)
+            .maxConnectionLifeTime(1800000, TimeUnit.MILLISECONDS)
+            .build();
+        ClusterSettings clusterSettings = ClusterSettings.builder()
+            .applyConnectionString(new ConnectionString(System.getProperty("mongodb.uri")))
+            .localThreshold(50, TimeUnit.MILLISECONDS)
+            .serverSelectionTimeout(30000, TimeUnit.MILLISECONDS)
+            .build();
+        MongoClientSettings.Builder optionsBuilder = MongoClientSettings.builder()
+            .applyToConnectionPoolSettings(builder -> builder.applySettings(settings))
+            .applyToClusterSettings(builder -> builder.applySettings(clusterSettings));
+        MongoClientSettings clientSettings = driverMetrics.apply(optionsBuilder).build();
+
+        while (true) {
+            MongoClient mongoClient = MongoClients.create(clientSettings);
+            try {
+                // Do a test read.
+                MongoCollection<Document> gradesCollection =
+                    mongoClient.getDatabase("sample_training").getCollection("grades");
+                if (gradesCollection.find(eq("student_id", RampUpAndDown.FIRST_STUDENT_ID)).first() == null) {
+                    throw new Exception("Can't read");
+                }
+                return mongoClient;
+            } catch (Exception e) {
+                mongoClient.close();
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+                System.out.println("Error creating client: " + e);
+            }
+        }
+    }
+
+    /**
+     * @return the slot of a new worker, used by the sticky mapping.
+     */
+    int newSlot() {
+        return nextSlot.getAndIncrement();
+    }
+
+    /**
+     * @param slot slot of the calling worker.
+     * @return the client for the next operation of the worker.
+     */
+    MongoClient get(int slot) {
+        switch (mapping) {
+            case ROUNDROBIN:
+                return clients.get(Math.floorMod(nextClient.getAndIncrement(), clients.length()));
+            case STICKY:
+                return clients.get(Math.floorMod(slot, clients.length()));
+            default:
+                return clients.get(ThreadLocalRandom.current().nextInt(clients.length()));
+        }
+    }
+
+    /**
+     * Replaces a client that was closed under a worker. Workers racing to replace the same client
+     * create only one new client.
+     */
+    synchronized void replace(MongoClient client) throws Exception {
+        for (int i = 0; i < clients.length(); ++i) {
+            if (clients.get(i) == client) {
+                clients.set(i, createClient(System.nanoTime() + timeoutNanos));
+                return;
+            }
+        }
+    }
+
+    void close() {
+        for (int i = 0; i < clients.length(); ++i) {
+            MongoClient client = clients.get(i);
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+
+    long getStartupMillis() {
+        return startupMillis;
+    }
+
+    String describe() {
+        return String.format("%d clients, pool size %d, %s mapping, started in %d ms", clients.length(), poolSize,
+            mapping.name().toLowerCase(), startupMillis);
+    }
+}
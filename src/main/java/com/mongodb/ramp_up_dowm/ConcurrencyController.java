@@ -0,0 +1,73 @@
+package com.mongodb.ramp_up_dowm;
+
+/**
+ * Strategy that moves the {@link ConnectionTarget} thread (or in flight operation) count during
+ * the RAMP_UP and STRESS phases. RAMP_DOWN is always linear. Selected with
+ * -Dconcurrency.controller=linear (default), aimd or gradient.
+ */
+public interface ConcurrencyController {
+    String PROPERTY = "concurrency.controller";
+    String LATENCY_LIMIT_PROPERTY = "concurrency.latencyLimitMs";
+    String ERROR_RATE_LIMIT_PROPERTY = "concurrency.errorRateLimit";
+
+    /**
+     * Measurements of the last second.
+     */
+    class Sample {
+        final int throughput;
+        final long p50LatencyUs;
+        final long p99LatencyUs;
+        final double errorRate;
+
+        Sample(int throughput, long p50LatencyUs, long p99LatencyUs, double errorRate) {
+            this.throughput = throughput;
+            this.p50LatencyUs = p50LatencyUs;
+            this.p99LatencyUs = p99LatencyUs;
+            this.errorRate = errorRate;
+        }
+    }
+
+    /**
+     * Called once per second during RAMP_UP.
+     *
+     * @return the new target.
+     */
+    int rampUp(int current, Sample sample);
+
+    /**
+     * @return true once the controller found the limit of the system and ramp up can end.
+     */
+    boolean isSaturated();
+
+    /**
+     * Called once when the STRESS phase starts.
+     *
+     * @return the target to start the STRESS phase with.
+     */
+    int onSaturated(int current);
+
+    /**
+     * Called once per second during STRESS.
+     *
+     * @return the new target.
+     */
+    int stress(int current, Sample sample);
+
+    String describe();
+
+    static ConcurrencyController fromSystemProperties() {
+        String name = System.getProperty(PROPERTY, "linear");
+        long latencyLimitUs = Long.getLong(LATENCY_LIMIT_PROPERTY, 50) * 1000;
+        double errorRateLimit = Double.parseDouble(System.getProperty(ERROR_RATE_LIMIT_PROPERTY, "0.01"));
+        switch (name.toLowerCase()) {
+            case "linear":
+                return new LinearRampController();
+            case "aimd":
+                return new AimdController(latencyLimitUs, errorRateLimit);
+            case "gradient":
+                return new GradientController(latencyLimitUs, errorRateLimit);
+            default:
+                throw new IllegalArgumentException("Unknown " + PROPERTY + ": " + name);
+        }
+    }
+}
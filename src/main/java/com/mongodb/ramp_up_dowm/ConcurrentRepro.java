@@ -3,7 +3,6 @@ package com.mongodb.ramp_up_dowm;
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.gte;
 import static com.mongodb.client.model.Filters.lte;
-import static java.util.Arrays.asList;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -13,7 +12,9 @@ import java.util.concurrent.TimeUnit;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.ConnectionString;
+import com.mongodb.GradePayload;
 import com.mongodb.MongoClientSettings;
+import com.mongodb.StubServer;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
@@ -23,11 +24,9 @@ import com.mongodb.connection.ClusterSettings;
 import com.mongodb.connection.ConnectionPoolSettings;
 
 import org.bson.Document;
-import org.bson.types.ObjectId;
+import org.bson.RawBsonDocument;
 
 public class ConcurrentRepro {
-    private static final Random rand = new Random();
-
     public static class ConcurrentReads {
         static final int CLIENT_COUNT = 10;
         static final int READ_INTERVAL_PER_THREAD_MS = 100;
@@ -131,11 +130,13 @@ public class ConcurrentRepro {
             MongoDatabase sampleTrainingDB = mongoClient.getDatabase("sample_training");
             MongoCollection<Document> gradesCollection = sampleTrainingDB.getCollection("grades");
 
-            List<Document> grades = new ArrayList<>();
+            GradePayload payload = new GradePayload();
+            List<RawBsonDocument> grades = new ArrayList<>();
             for (long studentId = 10000; studentId <= 10000 + 1000; ++studentId) {
-                grades.add(generateNewGrade(studentId, 1d));
+                grades.add(payload.newGrade(studentId, 1d));
             }
-            gradesCollection.insertMany(grades, new InsertManyOptions().ordered(false));
+            gradesCollection.withDocumentClass(RawBsonDocument.class)
+                .insertMany(grades, new InsertManyOptions().ordered(false));
             System.out.println("Inserted students");
     
             // Enable sharding.
@@ -151,17 +152,8 @@ public class ConcurrentRepro {
         }
     }
 
-    private static Document generateNewGrade(double studentId, double classId) {
-        List<Document> scores = asList(new Document("type", "exam").append("score", rand.nextDouble() * 100),
-                                       new Document("type", "quiz").append("score", rand.nextDouble() * 100),
-                                       new Document("type", "homework").append("score", rand.nextDouble() * 100),
-                                       new Document("type", "homework").append("score", rand.nextDouble() * 100));
-        return new Document("_id", new ObjectId()).append("student_id", studentId)
-                                                  .append("class_id", classId)
-                                                  .append("scores", scores);
-    }
-
     public static void main(String[] args) throws Exception {
+        StubServer.startIfEmbedded();
         addData();
         ConcurrentReads concurrentReads = new ConcurrentReads();
         while (true) {
@@ -18,8 +18,8 @@ public class ConnectionTarget {
     private LocalDateTime stressStateStart;
     private int targetThreadCount = 1;
     private Stats stats;
-    private int lastReadQPS = 1;
-    private int lastWriteQPS = 1;
+    private final ConcurrencyController controller;
+    private int saturationThreadCount = 0;
 
     public enum State {
         RAMP_UP,
@@ -28,8 +28,14 @@ public class ConnectionTarget {
     }
     
     public ConnectionTarget(Stats stats, int initialTargetThreadCount) {
+        this(stats, initialTargetThreadCount, ConcurrencyController.fromSystemProperties());
+    }
+
+    public ConnectionTarget(Stats stats, int initialTargetThreadCount, ConcurrencyController controller) {
         this.stats = stats;
         this.targetThreadCount = initialTargetThreadCount;
+        this.controller = controller;
+        stats.setPhase(state.name(), targetThreadCount);
     }
 
     int getThreadCountTarget() {
@@ -44,23 +50,20 @@ public class ConnectionTarget {
             switch (state) {
                 case RAMP_UP: {
                     if (doAdjust) {
+                        targetThreadCount = controller.rampUp(targetThreadCount, sample());
                         checkIfRampUpDone();
-                        if (state == State.RAMP_UP) {
-                            targetThreadCount += CONNECTION_RAMP_UP_PER_SEC;
-                        }
-                        lastReadQPS = stats.getValue("read");
-                        lastWriteQPS = stats.getValue("write");
                     }
                 }
                 break;
                 case STRESS: {
                     if (doAdjust) {
-                        --targetThreadCount;
+                        targetThreadCount = controller.stress(targetThreadCount, sample());
                     }
                     if (ChronoUnit.MILLIS.between(stressStateStart, now) > 
                         STRESS_STATE_LENGTH_SECONDS * 1000) {
                         state = State.RAMP_DOWN;
                         System.out.println("Detected stress completion state");
+                        stats.setPhase(state.name(), targetThreadCount);
                     }
                 }
                 break;
@@ -78,22 +81,62 @@ public class ConnectionTarget {
         }
     }
 
+    /**
+     * @return the thread count the STRESS phase started with, 0 before ramp up completed.
+     */
+    int getSaturationThreadCount() {
+        lock.lock();
+        try {
+            return saturationThreadCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the current phase.
+     */
+    State getState() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return measurements of the last second for the controller.
+     */
+    private ConcurrencyController.Sample sample() {
+        int throughput = stats.getValue("reads") + stats.getValue("writes");
+        int errors = stats.getValue("readFailure") + stats.getValue("writeFailure");
+        long p50 = Math.max(stats.getValue("readP50Us"), stats.getValue("writeP50Us"));
+        long p99 = Math.max(stats.getValue("readP99Us"), stats.getValue("writeP99Us"));
+        double errorRate = throughput + errors == 0 ? 0 : (double) errors / (throughput + errors);
+        return new ConcurrencyController.Sample(throughput, p50, p99, errorRate);
+    }
+
     void checkIfRampUpDone() {
         assert(lock.isLocked());
         LocalDateTime now = LocalDateTime.now();
+        boolean saturated = controller.isSaturated();
         if (ChronoUnit.MILLIS.between(rampUpStart, now) < 
             RAMP_UP_MINIMAL_TIME_SECONDS * 1000) {
             return;
         }
-        int currentReadQPS = stats.getValue("read");
-        int currentWriteQPS = stats.getValue("write");
-        if ((currentReadQPS < lastReadQPS * 0.98 &&
-            currentWriteQPS < lastWriteQPS * 0.98) ||
-            ChronoUnit.MILLIS.between(rampUpStart, now) >
-            RAMP_UP_MAXIMUM_TIME_SECONDS * 1000) {
-                System.out.println("Detected ramp up completion state");
-                state = State.STRESS;
-                stressStateStart = LocalDateTime.now();
-            }
+        boolean timedOut = ChronoUnit.MILLIS.between(rampUpStart, now) >
+            RAMP_UP_MAXIMUM_TIME_SECONDS * 1000;
+        if (saturated || timedOut) {
+            System.out.println("Detected ramp up completion state" + (saturated ? "" : " (time limit)") +
+                ": " + controller.describe());
+            state = State.STRESS;
+            stressStateStart = LocalDateTime.now();
+            targetThreadCount = controller.onSaturated(targetThreadCount);
+            saturationThreadCount = targetThreadCount;
+            System.out.println("Stress thread count starts at " + targetThreadCount);
+            stats.note("Saturation" + (saturated ? "" : " (time limit)") + ": " + controller.describe());
+            stats.setPhase(state.name(), targetThreadCount);
+        }
     }
 }
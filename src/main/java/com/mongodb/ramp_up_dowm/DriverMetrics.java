@@ -0,0 +1,139 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+/**
+ * Connection pool and command events of all the clients, reported through {@link Stats}, so pool
+ * queueing can be told apart from server slowness:
+ * <ul>
+ * <li>{@code poolWait} histogram - time from check out start to getting a connection.</li>
+ * <li>{@code connectionsOpen}, {@code connectionsCheckedOut} and {@code connectionsAvailable} gauges -
+ * pooled connections, those in use and the idle ones, over all pools.</li>
+ * <li>{@code connectionsCreated}, {@code connectionsClosed}, {@code checkOutFailures} counters.</li>
+ * <li>{@code <command>Cmd} histograms - round trip of each command as seen by the driver, without
+ * the pool wait, e.g. {@code findCmd} next to the {@code read} operation latency.</li>
+ * </ul>
+ */
+public class DriverMetrics implements ConnectionPoolListener, CommandListener {
+    public static final String POOL_WAIT = "poolWait";
+    public static final String OPEN_KEY = "connectionsOpen";
+    public static final String CHECKED_OUT_KEY = "connectionsCheckedOut";
+    public static final String AVAILABLE_KEY = "connectionsAvailable";
+    public static final String COMMAND_SUFFIX = "Cmd";
+
+    private final Stats stats;
+    private final boolean measurePoolWait;
+    private final LatencyHistogram poolWait;
+    private final EventCounter created;
+    private final EventCounter closed;
+    private final EventCounter checkOutFailures;
+    private final EventCounter commandFailures;
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger checkedOut = new AtomicInteger();
+    private final AtomicInteger peakOpen = new AtomicInteger();
+    // The sync driver checks out on the calling thread, start and end events see the same thread.
+    private final ThreadLocal<long[]> checkOutStart = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * @param measurePoolWait false for the async driver, where a check out may complete on
+     * another thread than the one that started it.
+     */
+    public DriverMetrics(Stats stats, boolean measurePoolWait) {
+        this.stats = stats;
+        this.measurePoolWait = measurePoolWait;
+        this.poolWait = stats.latencyHistogram(POOL_WAIT);
+        this.created = stats.counter("connectionsCreated");
+        this.closed = stats.counter("connectionsClosed");
+        this.checkOutFailures = stats.counter("checkOutFailures");
+        this.commandFailures = stats.counter("commandFailures");
+        stats.registerGauge(OPEN_KEY, open::get);
+        stats.registerGauge(CHECKED_OUT_KEY, checkedOut::get);
+        stats.registerGauge(AVAILABLE_KEY, () -> Math.max(0, open.get() - checkedOut.get()));
+    }
+
+    /**
+     * Adds the listeners to the settings of a new client. Call after any
+     * {@code ConnectionPoolSettings.Builder.applySettings}, which replaces the pool listeners.
+     */
+    public MongoClientSettings.Builder apply(MongoClientSettings.Builder builder) {
+        return builder.addCommandListener(this)
+            .applyToConnectionPoolSettings(pool -> pool.addConnectionPoolListener(this));
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        if (measurePoolWait) {
+            checkOutStart.get()[0] = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        checkedOut.incrementAndGet();
+        if (measurePoolWait) {
+            long[] start = checkOutStart.get();
+            if (start[0] != 0) {
+                poolWait.recordNanos(System.nanoTime() - start[0]);
+                start[0] = 0;
+            }
+        }
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        checkOutFailures.increment();
+        if (measurePoolWait) {
+            checkOutStart.get()[0] = 0;
+        }
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        checkedOut.decrementAndGet();
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        peakOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+        created.increment();
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        open.decrementAndGet();
+        closed.increment();
+    }
+
+    /**
+     * @return the peak of pooled connections. Monitoring connections, one per client and server, come on top.
+     */
+    String summary() {
+        return "peak pooled connections " + peakOpen.get();
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        stats.latencyHistogram(event.getCommandName() + COMMAND_SUFFIX).recordNanos(
+            event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        commandFailures.increment();
+        stats.latencyHistogram(event.getCommandName() + COMMAND_SUFFIX).recordNanos(
+            event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+}
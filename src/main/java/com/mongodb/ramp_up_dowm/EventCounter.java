@@ -0,0 +1,68 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Events per second counter handle obtained from the {@link MetricsRegistry}.
+ * Increments are spread over several {@link FrequencyCounter} stripes picked by the
+ * calling thread, so concurrent workers rarely touch the same counter. The stripes
+ * are merged when the value is read for reporting.
+ */
+public class EventCounter {
+    private static final int STRIPES = stripeCount();
+
+    private final String name;
+    private final FrequencyCounter[] stripes = new FrequencyCounter[STRIPES];
+
+    EventCounter(String name) {
+        this.name = name;
+        for (int i = 0; i < stripes.length; ++i) {
+            stripes[i] = new FrequencyCounter(1, TimeUnit.SECONDS);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Count a single event.
+     */
+    public void increment() {
+        stripes[stripe()].increment();
+    }
+
+    /**
+     * Count several events at once.
+     */
+    public void add(int events) {
+        if (events > 0) {
+            stripes[stripe()].add(events);
+        }
+    }
+
+    /**
+     * @return events during the last second, merged over all stripes.
+     */
+    public int getCount() {
+        int count = 0;
+        for (FrequencyCounter stripe : stripes) {
+            count += stripe.getCount();
+        }
+        return count;
+    }
+
+    private static int stripe() {
+        // Thread ids are sequential, mix the bits before masking.
+        long h = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (STRIPES - 1);
+    }
+
+    /**
+     * @return a power of two at least twice the CPU count.
+     */
+    private static int stripeCount() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return Integer.highestOneBit(Math.max(1, cpus * 2 - 1)) << 1;
+    }
+}
@@ -1,27 +1,35 @@
 package com.mongodb.ramp_up_dowm;
 
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * A counter that counts events within the past time interval. All events that occurred before this interval will be
  * removed from the counter.
+ * <p>
+ * The interval is split into time slices kept in a ring buffer. Each cell packs the slice number it belongs to
+ * together with its count, so a cell left over from an older round of the ring is recognized and restarted with a
+ * single compare and set. An increment that finds its cell already holding a newer slice is dropped, its slice is
+ * out of the interval. No locks are taken and an increment costs the same regardless of the precision.
  */
 public class FrequencyCounter {
 
-    private final long          monitoringInterval;
+    private static final int         COUNT_BITS = 40;
 
-    private final int[]         details;
+    private static final long        COUNT_MASK = (1L << COUNT_BITS) - 1;
 
-    private final AtomicInteger currentCount = new AtomicInteger();
+    private static final long        TAG_MASK   = (1L << (Long.SIZE - COUNT_BITS)) - 1;
 
-    private long                startInterval;
+    private final long               sliceMillis;
 
-    private int                 total;
+    private final int                precision;
+
+    // precision + 1 cells: the oldest slice is only partially inside the interval.
+    private final AtomicLongArray    cells;
 
     /**
      * Create a new instance of the counter for the given interval.
-     * 
+     *
      * @param interval the time to monitor/count the events.
      * @param unit the time unit of the {@code interval} argument
      */
@@ -31,66 +39,96 @@ public class FrequencyCounter {
 
     /**
      * Create a new instance of the counter for the given interval.
-     * 
+     *
      * @param interval the time to monitor/count the events.
      * @param unit the time unit of the {@code interval} argument
      * @param precision the count of time slices for the measurement
      */
     FrequencyCounter( long interval, TimeUnit unit, int precision ) {
-        monitoringInterval = unit.toMillis( interval );
+        long monitoringInterval = unit.toMillis( interval );
         if( monitoringInterval <= 0 ) {
             throw new IllegalArgumentException( "Interval mus be a positive value:" + interval );
         }
-        details = new int[precision];
-        startInterval = System.currentTimeMillis() - monitoringInterval;
+        if( precision <= 0 || monitoringInterval / precision <= 0 ) {
+            throw new IllegalArgumentException( "Precision must be between 1 and the interval in ms:" + precision );
+        }
+        this.precision = precision;
+        sliceMillis = monitoringInterval / precision;
+        cells = new AtomicLongArray( precision + 1 );
     }
 
     /**
      * Count a single event.
      */
     public void increment() {
-        checkInterval( System.currentTimeMillis() );
-        currentCount.incrementAndGet();
+        add( 1 );
+    }
+
+    /**
+     * Count several events at once.
+     *
+     * @param events the count of events, must not be negative
+     */
+    public void add( int events ) {
+        long slice = System.currentTimeMillis() / sliceMillis;
+        int index = index( slice );
+        long tag = slice & TAG_MASK;
+        while( true ) {
+            long value = cells.get( index );
+            long cellTag = value >>> COUNT_BITS;
+            long next;
+            if( cellTag == tag ) {
+                next = value + events;
+            } else if( value != 0 && isNewer( cellTag, tag ) ) {
+                // The thread stalled for a round of the ring, a later slice owns the cell now.
+                return;
+            } else {
+                next = (tag << COUNT_BITS) | events;
+            }
+            if( cells.compareAndSet( index, value, next ) ) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Compares tags modulo the tag size, a tag less than half the tag range ahead is newer.
+     */
+    private static boolean isNewer( long tag, long than ) {
+        long ahead = (tag - than) & TAG_MASK;
+        return ahead != 0 && ahead < (TAG_MASK >>> 1);
     }
 
     /**
      * Get the current value of the counter.
-     * 
+     *
      * @return the counter value
      */
     public int getCount() {
         long currentTime = System.currentTimeMillis();
-        checkInterval( currentTime );
-        long diff = currentTime - startInterval - monitoringInterval;
-
-        double partFactor = (diff * details.length / (double)monitoringInterval);
-        int part = (int)(details[0] * partFactor);
-        return total + currentCount.get() - part;
+        long slice = currentTime / sliceMillis;
+        long total = 0;
+        for( int age = 0; age <= precision; ++age ) {
+            long count = countOf( slice - age );
+            if( age == precision ) {
+                // Only the tail of the oldest slice is inside the interval.
+                long inside = sliceMillis - currentTime % sliceMillis;
+                count = count * inside / sliceMillis;
+            }
+            total += count;
+        }
+        return (int) Math.min( total, Integer.MAX_VALUE );
     }
 
     /**
-     * Check the interval of the detail counters and move the interval if needed.
-     * 
-     * @param time the current time
+     * @return events counted in the given slice, 0 if its cell was already reused or not yet started
      */
-    private void checkInterval( final long time ) {
-        if( (time - startInterval - monitoringInterval) > monitoringInterval / details.length ) {
-            synchronized( details ) {
-                long detailInterval = monitoringInterval / details.length;
-                while( (time - startInterval - monitoringInterval) > detailInterval ) {
-                    int currentValue = currentCount.getAndSet( 0 );
-                    if( (total | currentValue) == 0 ) {
-                        // for the case that the counter was not used for a long time
-                        startInterval = time - monitoringInterval;
-                        return;
-                    }
-                    int size = details.length - 1;
-                    total += currentValue - details[0];
-                    System.arraycopy( details, 1, details, 0, size );
-                    details[size] = currentValue;
-                    startInterval += detailInterval;
-                }
-            }
-        }
+    private long countOf( long slice ) {
+        long value = cells.get( index( slice ) );
+        return (value >>> COUNT_BITS) == (slice & TAG_MASK) ? value & COUNT_MASK : 0;
+    }
+
+    private int index( long slice ) {
+        return (int) (slice % cells.length());
     }
 }
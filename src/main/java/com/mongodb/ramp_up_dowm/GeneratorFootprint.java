@@ -0,0 +1,122 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Measures how much CPU and memory the load generator itself uses, normalized
+ * per simulated client (worker), so the thread engines can be compared, and the
+ * CPU per operation, which shows how much of a read is spent decoding replies.
+ */
+public class GeneratorFootprint {
+    public final static String CPU_PER_CLIENT_KEY = "cpuUsPerClient";
+    public final static String RSS_PER_CLIENT_KEY = "rssKbPerClient";
+    public final static String CPU_PER_OP_KEY = "cpuNsPerOp";
+
+    private static final Path PROC_STATUS = Paths.get("/proc/self/status");
+
+    private final com.sun.management.OperatingSystemMXBean os =
+        (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final String engine;
+
+    private long lastCpuNanos = os.getProcessCpuTime();
+    private long lastSampleNanos = System.nanoTime();
+    // Read by the coordinator thread.
+    private volatile long cpuUsPerClient = 0;
+    private volatile long rssKbPerClient = 0;
+    private volatile long cpuNsPerOp = 0;
+
+    // Totals for the end of run summary.
+    private long samples = 0;
+    private long peakClients = 0;
+    private long sumCpuUsPerClient = 0;
+    private long sumRssKbPerClient = 0;
+    private long sumCpuNsPerOp = 0;
+
+    public GeneratorFootprint(String engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Takes a new sample. Expected to be called about once per second.
+     *
+     * @param clients count of running workers.
+     * @param opsPerSec reads and writes completed in the last second.
+     */
+    void sample(int clients, long opsPerSec) {
+        long now = System.nanoTime();
+        long cpu = os.getProcessCpuTime();
+        long elapsed = now - lastSampleNanos;
+        if (clients <= 0 || elapsed <= 0) {
+            return;
+        }
+        // CPU microseconds consumed per wall clock second, per client.
+        cpuUsPerClient = (cpu - lastCpuNanos) * 1000L / elapsed * 1000L / clients;
+        rssKbPerClient = residentKb() / clients;
+        cpuNsPerOp = opsPerSec <= 0 ? 0 : (long) (perSecond(cpu - lastCpuNanos, elapsed) / opsPerSec);
+        lastCpuNanos = cpu;
+        lastSampleNanos = now;
+
+        ++samples;
+        peakClients = Math.max(peakClients, clients);
+        sumCpuUsPerClient += cpuUsPerClient;
+        sumRssKbPerClient += rssKbPerClient;
+        sumCpuNsPerOp += cpuNsPerOp;
+    }
+
+    /**
+     * Rate of a counter over a sample interval. Computed in double: the delta times 1e9 overflows
+     * a long once the delta passes 9.2 billion (CPU ns, allocated bytes...).
+     *
+     * @param delta counter increase over the interval.
+     * @param elapsedNanos length of the interval.
+     * @return the increase per second.
+     */
+    static double perSecond(long delta, long elapsedNanos) {
+        return (double) delta * 1e9 / elapsedNanos;
+    }
+
+    long getCpuUsPerClient() {
+        return cpuUsPerClient;
+    }
+
+    long getRssKbPerClient() {
+        return rssKbPerClient;
+    }
+
+    long getCpuNsPerOp() {
+        return cpuNsPerOp;
+    }
+
+    String summary() {
+        long n = Math.max(samples, 1);
+        return String.format("Generator footprint: engine=%s peakClients=%d avg %s=%d avg %s=%d avg %s=%d",
+            engine, peakClients, CPU_PER_CLIENT_KEY, sumCpuUsPerClient / n,
+            RSS_PER_CLIENT_KEY, sumRssKbPerClient / n, CPU_PER_OP_KEY, sumCpuNsPerOp / n);
+    }
+
+    /**
+     * Resident set size covers native thread stacks, which the heap counters miss.
+     * Falls back to committed heap and non heap memory when /proc is not available.
+     */
+    private long residentKb() {
+        try {
+            List<String> lines = Files.readAllLines(PROC_STATUS);
+            for (String line : lines) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux.
+        }
+        return (memory.getHeapMemoryUsage().getCommitted() +
+            memory.getNonHeapMemoryUsage().getCommitted()) / 1024;
+    }
+}
@@ -0,0 +1,178 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples the health of the generator JVM once per second, so a throughput plateau caused by the
+ * generator can be told apart from one caused by the cluster. Columns:
+ * <ul>
+ * <li>{@code allocMbPerSec} - heap allocated by all threads, virtual threads included.</li>
+ * <li>{@code gcPauseMsPerSec} - time spent in stop the world collections, concurrent cycles excluded.</li>
+ * <li>{@code generatorCpuPct} - process CPU over all cores.</li>
+ * <li>{@code liveThreads} - live platform threads, carriers of virtual threads included.</li>
+ * <li>{@code schedLag} histogram - how late a thread of the worker engine wakes up from a 10 ms
+ * sleep. It grows with CPU saturation, GC pauses, safepoints and, for virtual threads, busy carriers.</li>
+ * <li>{@code generatorSaturated} - 1 while any of the limits below is exceeded.</li>
+ * </ul>
+ * Limits (system properties): generator.cpuPctLimit (default 90), generator.gcPctLimit - pause time
+ * in percent of wall time (default 10), generator.schedLagMsLimit - p99 of the interval, or the
+ * overdue wake up of a starved sampler (default 20).
+ * A warning is printed and noted in the report whenever the generator becomes saturated.
+ */
+public class GeneratorMonitor implements AutoCloseable {
+    public static final String CPU_PCT_LIMIT_PROPERTY = "generator.cpuPctLimit";
+    public static final String GC_PCT_LIMIT_PROPERTY = "generator.gcPctLimit";
+    public static final String SCHED_LAG_LIMIT_PROPERTY = "generator.schedLagMsLimit";
+    public static final String ALLOC_KEY = "allocMbPerSec";
+    public static final String GC_PAUSE_KEY = "gcPauseMsPerSec";
+    public static final String CPU_PCT_KEY = "generatorCpuPct";
+    public static final String THREADS_KEY = "liveThreads";
+    public static final String SCHED_LAG = "schedLag";
+    public static final String SATURATED_KEY = "generatorSaturated";
+
+    private static final long SCHED_LAG_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final com.sun.management.OperatingSystemMXBean os =
+        (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final int processors = Runtime.getRuntime().availableProcessors();
+    private final long cpuPctLimit = Long.getLong(CPU_PCT_LIMIT_PROPERTY, 90);
+    private final long gcPctLimit = Long.getLong(GC_PCT_LIMIT_PROPERTY, 10);
+    private final long schedLagUsLimit = TimeUnit.MILLISECONDS.toMicros(Long.getLong(SCHED_LAG_LIMIT_PROPERTY, 20));
+    private final LatencyHistogram schedLag;
+    private final Thread sampler;
+    private volatile boolean closed = false;
+    // Nano time the sampler should wake up at next, read by the reporter when the sampler is starved.
+    private volatile long nextWakeUpNanos = System.nanoTime();
+
+    // Only used by the reporter thread.
+    private long lastSampleNanos = System.nanoTime();
+    private long lastCpuNanos = os.getProcessCpuTime();
+    private long lastAllocatedBytes = threads.getTotalThreadAllocatedBytes();
+    private long lastGcMillis = gcPauseMillis();
+    private String saturation = null;
+
+    // Totals for the end of run summary.
+    private long samples = 0;
+    private long saturatedSamples = 0;
+    private long peakCpuPct = 0;
+    private long peakGcPauseMsPerSec = 0;
+    private long peakThreads = 0;
+
+    /**
+     * @param engine the scheduling lag is measured on a thread of this engine, a platform thread for
+     * the reactive engine.
+     */
+    public GeneratorMonitor(Stats stats, WorkerEngine engine) {
+        this.schedLag = stats.latencyHistogram(SCHED_LAG);
+        WorkerEngine samplerEngine = engine == WorkerEngine.VIRTUAL ? engine : WorkerEngine.PLATFORM;
+        this.sampler = samplerEngine.newThread(this::sampleSchedulingLag);
+        this.sampler.setName("sched-lag-sampler");
+        this.sampler.setDaemon(true);
+        this.sampler.start();
+    }
+
+    private void sampleSchedulingLag() {
+        long next = System.nanoTime() + SCHED_LAG_INTERVAL_NANOS;
+        while (!closed) {
+            nextWakeUpNanos = next;
+            LockSupport.parkNanos(next - System.nanoTime());
+            long now = System.nanoTime();
+            if (now < next) {
+                // Spurious wake up.
+                continue;
+            }
+            schedLag.recordNanos(now - next);
+            next = now + SCHED_LAG_INTERVAL_NANOS;
+        }
+    }
+
+    private long gcPauseMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            String name = collector.getName();
+            // G1 and ZGC report their concurrent cycles next to the pauses.
+            if (name.contains("Concurrent") || name.contains("Cycles")) {
+                continue;
+            }
+            millis += Math.max(collector.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+
+    /**
+     * Adds this second's values to the report values. Called by the reporter thread after the
+     * histograms were sampled, so the scheduling lag of the interval is in {@code values}.
+     *
+     * @return a warning when the generator just became saturated, otherwise null.
+     */
+    String sample(Map<String, Long> values) {
+        long now = System.nanoTime();
+        long elapsed = now - lastSampleNanos;
+        if (elapsed <= 0) {
+            return null;
+        }
+        long cpu = os.getProcessCpuTime();
+        long allocated = threads.getTotalThreadAllocatedBytes();
+        long gcMillis = gcPauseMillis();
+        long cpuPct = (cpu - lastCpuNanos) * 100 / elapsed / processors;
+        long allocMbPerSec =
+            (long) (GeneratorFootprint.perSecond(allocated - lastAllocatedBytes, elapsed) / (1024 * 1024));
+        long gcPauseMsPerSec = (long) GeneratorFootprint.perSecond(gcMillis - lastGcMillis, elapsed);
+        long liveThreads = threads.getThreadCount();
+        lastSampleNanos = now;
+        lastCpuNanos = cpu;
+        lastAllocatedBytes = allocated;
+        lastGcMillis = gcMillis;
+
+        values.put(ALLOC_KEY, allocMbPerSec);
+        values.put(GC_PAUSE_KEY, gcPauseMsPerSec);
+        values.put(CPU_PCT_KEY, cpuPct);
+        values.put(THREADS_KEY, liveThreads);
+
+        String reason = null;
+        // A starved sampler records nothing, count the wake up it is still waiting for.
+        long pendingLagUs = TimeUnit.NANOSECONDS.toMicros(now - nextWakeUpNanos);
+        long lagP99Us = Math.max(values.getOrDefault(SCHED_LAG + "P99Us", 0L), pendingLagUs);
+        if (cpuPct >= cpuPctLimit) {
+            reason = "CPU " + cpuPct + "%";
+        } else if (gcPauseMsPerSec * 100 / 1000 >= gcPctLimit) {
+            reason = "GC pauses " + gcPauseMsPerSec + " ms/sec";
+        } else if (lagP99Us >= schedLagUsLimit) {
+            reason = "scheduling lag p99 " + TimeUnit.MICROSECONDS.toMillis(lagP99Us) + " ms";
+        }
+        values.put(SATURATED_KEY, reason == null ? 0L : 1L);
+
+        ++samples;
+        if (reason != null) {
+            ++saturatedSamples;
+        }
+        peakCpuPct = Math.max(peakCpuPct, cpuPct);
+        peakGcPauseMsPerSec = Math.max(peakGcPauseMsPerSec, gcPauseMsPerSec);
+        peakThreads = Math.max(peakThreads, liveThreads);
+
+        boolean becameSaturated = reason != null && saturation == null;
+        saturation = reason;
+        return becameSaturated ? "WARNING: generator saturated, " + reason + ", latency includes generator delays" :
+            null;
+    }
+
+    String summary() {
+        return String.format("Generator health: saturated %d of %d sec, peak %s=%d peak %s=%d peak %s=%d",
+            saturatedSamples, samples, CPU_PCT_KEY, peakCpuPct, GC_PAUSE_KEY, peakGcPauseMsPerSec,
+            THREADS_KEY, peakThreads);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        sampler.interrupt();
+    }
+}
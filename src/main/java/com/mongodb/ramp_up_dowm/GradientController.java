@@ -0,0 +1,77 @@
+package com.mongodb.ramp_up_dowm;
+
+/**
+ * Latency gradient (Vegas style) controller. Tracks the lowest median latency seen as the no load
+ * latency and scales the target by the ratio of no load to current latency, plus a queue allowance
+ * of sqrt(target). While latency stays near the no load value the target grows by the allowance;
+ * once queueing inflates latency the gradient drops below 1 and the target shrinks. The p99 latency
+ * limit and error rate limit cap the gradient as well.
+ */
+public class GradientController implements ConcurrencyController {
+    // Latency may grow by this factor over the no load latency before the gradient drops below 1.
+    static final double TOLERANCE = 1.5;
+    static final double SMOOTHING = 0.2;
+    static final double MIN_GRADIENT = 0.5;
+
+    private final long latencyLimitUs;
+    private final double errorRateLimit;
+    private long noLoadLatencyUs = Long.MAX_VALUE;
+    private double limit = 0;
+    private double gradient = 1;
+    private boolean saturated = false;
+
+    public GradientController(long latencyLimitUs, double errorRateLimit) {
+        this.latencyLimitUs = latencyLimitUs;
+        this.errorRateLimit = errorRateLimit;
+    }
+
+    @Override
+    public int rampUp(int current, Sample sample) {
+        return adjust(current, sample);
+    }
+
+    @Override
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    @Override
+    public int onSaturated(int current) {
+        return current;
+    }
+
+    @Override
+    public int stress(int current, Sample sample) {
+        return adjust(current, sample);
+    }
+
+    private int adjust(int current, Sample sample) {
+        if (limit == 0) {
+            limit = current;
+        }
+        if (sample.p50LatencyUs <= 0) {
+            return current;  // No completed operations in the interval.
+        }
+        noLoadLatencyUs = Math.min(noLoadLatencyUs, sample.p50LatencyUs);
+        gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * noLoadLatencyUs / sample.p50LatencyUs));
+        if (sample.p99LatencyUs > latencyLimitUs) {
+            gradient = Math.min(gradient, (double) latencyLimitUs / sample.p99LatencyUs);
+        }
+        if (sample.errorRate > errorRateLimit) {
+            gradient = MIN_GRADIENT;
+        }
+        gradient = Math.max(MIN_GRADIENT, gradient);
+        if (gradient < 1) {
+            saturated = true;
+        }
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(1, (1 - SMOOTHING) * limit + SMOOTHING * newLimit);
+        return (int) limit;
+    }
+
+    @Override
+    public String describe() {
+        return String.format("gradient: limit %.0f, gradient %.2f, no load latency %d us",
+            limit, gradient, noLoadLatencyUs);
+    }
+}
@@ -0,0 +1,203 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Distribution of the student_id keys picked by the workers. A distribution is immutable and shared;
+ * every worker gets its own {@link KeyGenerator} from {@link #newGenerator()}, which keeps any state
+ * locally and draws from {@link ThreadLocalRandom}, so picking a key never touches shared state.
+ * <p>
+ * Selected per operation type with -Dkeys.read and -Dkeys.write:
+ * <ul>
+ * <li>uniform - every key equally likely (default).</li>
+ * <li>zipfian - Zipf distributed ranks mapped to the lowest keys, skew set by -Dkeys.zipfianTheta (0.99).</li>
+ * <li>hotspot - -Dkeys.hotOpsFraction (0.8) of operations go to the first -Dkeys.hotSetFraction (0.2) of keys.</li>
+ * <li>latest - Zipf distributed, counting down from the highest key, like reads of recently inserted data.</li>
+ * <li>sequential - every worker scans the key range in order from a random starting key.</li>
+ * </ul>
+ */
+public abstract class KeyDistribution {
+    public static final String READ_PROPERTY = "keys.read";
+    public static final String WRITE_PROPERTY = "keys.write";
+    public static final String ZIPFIAN_THETA_PROPERTY = "keys.zipfianTheta";
+    public static final String HOT_SET_FRACTION_PROPERTY = "keys.hotSetFraction";
+    public static final String HOT_OPS_FRACTION_PROPERTY = "keys.hotOpsFraction";
+
+    /**
+     * Per worker source of keys. Not thread safe.
+     */
+    public interface KeyGenerator {
+        long nextKey();
+    }
+
+    protected final long min;
+    protected final long count;
+
+    protected KeyDistribution(long min, long count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Key count must be a positive value: " + count);
+        }
+        this.min = min;
+        this.count = count;
+    }
+
+    /**
+     * @return a new generator for one worker.
+     */
+    public abstract KeyGenerator newGenerator();
+
+    /**
+     * @param property system property holding the distribution name.
+     * @param min lowest key.
+     * @param count number of keys, starting with {@code min}.
+     */
+    static KeyDistribution fromSystemProperty(String property, long min, long count) {
+        String name = System.getProperty(property, "uniform");
+        switch (name.toLowerCase()) {
+            case "uniform":
+                return new Uniform(min, count);
+            case "zipfian":
+                return new Zipfian(min, count, zipfianTheta(), false);
+            case "latest":
+                return new Zipfian(min, count, zipfianTheta(), true);
+            case "hotspot":
+                return new Hotspot(min, count,
+                    Double.parseDouble(System.getProperty(HOT_SET_FRACTION_PROPERTY, "0.2")),
+                    Double.parseDouble(System.getProperty(HOT_OPS_FRACTION_PROPERTY, "0.8")));
+            case "sequential":
+                return new Sequential(min, count);
+            default:
+                throw new IllegalArgumentException("Unknown " + property + ": " + name);
+        }
+    }
+
+    private static double zipfianTheta() {
+        return Double.parseDouble(System.getProperty(ZIPFIAN_THETA_PROPERTY, "0.99"));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName().toLowerCase() + " over [" + min + ", " + (min + count) + ")";
+    }
+
+    static class Uniform extends KeyDistribution {
+        Uniform(long min, long count) {
+            super(min, count);
+        }
+
+        @Override
+        public KeyGenerator newGenerator() {
+            return () -> min + ThreadLocalRandom.current().nextLong(count);
+        }
+    }
+
+    /**
+     * Zipf distributed ranks using the rejection free method from Gray et al., "Quickly Generating
+     * Billion-Record Synthetic Databases" (as in YCSB). The zeta constants are computed once.
+     */
+    static class Zipfian extends KeyDistribution {
+        private final double theta;
+        private final double alpha;
+        private final double zetaN;
+        private final double eta;
+        private final boolean fromTop;
+
+        Zipfian(long min, long count, double theta, boolean fromTop) {
+            super(min, count);
+            if (theta <= 0 || theta >= 1) {
+                throw new IllegalArgumentException("Zipfian theta must be between 0 and 1: " + theta);
+            }
+            this.theta = theta;
+            this.fromTop = fromTop;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zetaN = zeta(count, theta);
+            double zeta2 = zeta(2, theta);
+            this.eta = (1 - Math.pow(2.0 / count, 1 - theta)) / (1 - zeta2 / zetaN);
+        }
+
+        private static double zeta(long n, double theta) {
+            double sum = 0;
+            for (long i = 1; i <= n; ++i) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        /**
+         * @return rank in [0, count), 0 being the most popular.
+         */
+        long nextRank() {
+            double u = ThreadLocalRandom.current().nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return Math.min(1, count - 1);
+            }
+            long rank = (long) (count * Math.pow(eta * u - eta + 1, alpha));
+            return Math.min(rank, count - 1);
+        }
+
+        @Override
+        public KeyGenerator newGenerator() {
+            if (fromTop) {
+                return () -> min + count - 1 - nextRank();
+            }
+            return () -> min + nextRank();
+        }
+
+        @Override
+        public String toString() {
+            return (fromTop ? "latest" : "zipfian") + " theta " + theta + " over [" + min + ", " + (min + count) + ")";
+        }
+    }
+
+    static class Hotspot extends KeyDistribution {
+        private final long hotCount;
+        private final double hotOpsFraction;
+
+        Hotspot(long min, long count, double hotSetFraction, double hotOpsFraction) {
+            super(min, count);
+            this.hotCount = Math.max(1, Math.min(count, (long) (count * hotSetFraction)));
+            this.hotOpsFraction = hotOpsFraction;
+        }
+
+        @Override
+        public KeyGenerator newGenerator() {
+            return () -> {
+                ThreadLocalRandom rand = ThreadLocalRandom.current();
+                if (hotCount == count || rand.nextDouble() < hotOpsFraction) {
+                    return min + rand.nextLong(hotCount);
+                }
+                return min + hotCount + rand.nextLong(count - hotCount);
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "hotspot " + hotOpsFraction + " of operations on " + hotCount + " keys over [" +
+                min + ", " + (min + count) + ")";
+        }
+    }
+
+    static class Sequential extends KeyDistribution {
+        Sequential(long min, long count) {
+            super(min, count);
+        }
+
+        @Override
+        public KeyGenerator newGenerator() {
+            return new KeyGenerator() {
+                private long offset = ThreadLocalRandom.current().nextLong(count);
+
+                @Override
+                public long nextKey() {
+                    long key = min + offset;
+                    offset = (offset + 1) % count;
+                    return key;
+                }
+            };
+        }
+    }
+}
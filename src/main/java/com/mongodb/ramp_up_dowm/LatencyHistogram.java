@@ -0,0 +1,70 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * High dynamic range latency histogram for one operation type, in microseconds.
+ * Workers record into a {@link Recorder}, which is wait free and does not allocate.
+ * The reporting thread swaps out the interval histogram once per second and adds it
+ * to the full run histogram.
+ */
+public class LatencyHistogram {
+    static final long HIGHEST_TRACKABLE_US = TimeUnit.MINUTES.toMicros(10);
+    static final int SIGNIFICANT_DIGITS = 3;
+
+    private final String type;
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_US, SIGNIFICANT_DIGITS);
+    private final Histogram total = new Histogram(HIGHEST_TRACKABLE_US, SIGNIFICANT_DIGITS);
+    private Histogram interval;
+
+    LatencyHistogram(String type) {
+        this.type = type;
+        total.setTag(type);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Records one operation. Safe to call concurrently from any thread.
+     */
+    public void recordNanos(long nanos) {
+        long us = TimeUnit.NANOSECONDS.toMicros(nanos);
+        recorder.recordValue(Math.min(Math.max(us, 0), HIGHEST_TRACKABLE_US));
+    }
+
+    /**
+     * Completes the current interval. Must only be called from the reporting thread.
+     *
+     * @return the histogram of the interval that just ended, valid until the next call.
+     */
+    Histogram sampleInterval() {
+        interval = recorder.getIntervalHistogram(interval);
+        interval.setTag(type);
+        total.add(interval);
+        return interval;
+    }
+
+    /**
+     * Adds an interval recorded elsewhere, e.g. by a {@link LoadAgent}, to the full run histogram.
+     * Must only be called by the thread reporting the intervals.
+     */
+    void addInterval(Histogram h) {
+        total.add(h);
+    }
+
+    /**
+     * @return the histogram of the last completed interval, or null before the first one.
+     */
+    Histogram getInterval() {
+        return interval;
+    }
+
+    Histogram getTotal() {
+        return total;
+    }
+}
@@ -0,0 +1,38 @@
+package com.mongodb.ramp_up_dowm;
+
+/**
+ * Adds a fixed number of threads per second until the {@link SaturationDetector} finds the knee,
+ * then holds the concurrency where throughput peaked for the rest of the run.
+ */
+public class LinearRampController implements ConcurrencyController {
+    private final SaturationDetector saturationDetector = new SaturationDetector();
+    private boolean saturated = false;
+
+    @Override
+    public int rampUp(int current, Sample sample) {
+        // Latched: a knee found before the minimal ramp up time must not be lost to one noisy second.
+        saturated = saturationDetector.addSample(current, sample.throughput, sample.p99LatencyUs) || saturated;
+        return saturated ? onSaturated(current) : current + ConnectionTarget.CONNECTION_RAMP_UP_PER_SEC;
+    }
+
+    @Override
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    @Override
+    public int onSaturated(int current) {
+        int peak = saturationDetector.getPeakConcurrency();
+        return peak > 0 ? peak : current;
+    }
+
+    @Override
+    public int stress(int current, Sample sample) {
+        return current;
+    }
+
+    @Override
+    public String describe() {
+        return "linear: " + saturationDetector.describe();
+    }
+}
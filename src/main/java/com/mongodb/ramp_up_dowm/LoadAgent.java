@@ -0,0 +1,191 @@
+// Run with:
+//   mvn compile exec:java -Dexec.mainClass="com.mongodb.ramp_up_dowm.LoadAgent" -Dexec.args="/tmp/agent1.txt" -Ddistributed.coordinator=localhost:27100 -Dmongodb.uri="mongodb://localhost:27017/test?w=majority"
+
+package com.mongodb.ramp_up_dowm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * One generator process of a distributed run, see {@link LoadCoordinator}. Sets up its clients and
+ * workers like a single {@link RampUpAndDown} run, connects to the coordinator in
+ * -Ddistributed.coordinator (default localhost:27100, retried for -Ddistributed.waitSec, default 120),
+ * then follows the concurrency target and phases the coordinator sends. Every second of its own report
+ * is streamed to the coordinator. The agent also writes its own report, so a skewed agent can be spotted.
+ */
+public class LoadAgent {
+    public static final String COORDINATOR_PROPERTY = "distributed.coordinator";
+
+    /**
+     * Concurrency target and phase set by the coordinator, which runs the controller.
+     */
+    static class RemoteTarget extends ConnectionTarget {
+        private final Stats stats;
+        private volatile int target;
+        // Set before the connection reader starts, then only by it.
+        private volatile String phase = State.RAMP_UP.name();
+
+        RemoteTarget(Stats stats, int initialTarget) {
+            super(stats, initialTarget, null);
+            this.stats = stats;
+            this.target = initialTarget;
+        }
+
+        void update(String phase, int target) {
+            if (!phase.equals(this.phase)) {
+                this.phase = phase;
+                stats.setPhase(phase, target);
+            }
+            this.target = target;
+        }
+
+        void stop() {
+            target = 0;
+        }
+
+        @Override
+        int getThreadCountTarget() {
+            return target;
+        }
+    }
+
+    private final Stats stats;
+    private final WorkerEngine engine;
+    private final RemoteTarget target;
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    public LoadAgent(Stats stats, WorkerEngine engine) {
+        this.stats = stats;
+        this.engine = engine;
+        // The coordinator starts every agent where a single generator starts.
+        this.target = new RemoteTarget(stats, RampUpAndDown.MIN_READ_THREADS + RampUpAndDown.MIN_WRITE_THREADS);
+    }
+
+    /**
+     * Starts the clients, waits for the coordinator to start the run and runs it to the end.
+     */
+    public void run() throws Exception {
+        ReactiveLoad reactive = null;
+        RampUpAndDown threads = null;
+        if (engine == WorkerEngine.REACTIVE) {
+            reactive = new ReactiveLoad(stats, target);
+        } else {
+            threads = new RampUpAndDown(stats, engine, target);
+        }
+        connect();
+        if (in.readByte() != AgentProtocol.TARGET) {
+            throw new IOException("Unexpected message from the coordinator");
+        }
+        target.update(in.readUTF(), in.readInt());
+        System.out.println("Run started by the coordinator");
+        stats.setListener(this::send);
+        Thread reader = new Thread(this::readTargets, "coordinator-reader");
+        reader.setDaemon(true);
+        reader.start();
+        if (reactive != null) {
+            reactive.run();
+        } else {
+            threads.run();
+        }
+    }
+
+    private void connect() throws Exception {
+        String[] address = System.getProperty(COORDINATOR_PROPERTY, "localhost:27100").split(":");
+        int waitSec = Integer.getInteger(LoadCoordinator.WAIT_PROPERTY, 120);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(waitSec);
+        while (true) {
+            try {
+                socket = new Socket(address[0], Integer.parseInt(address[1]));
+                break;
+            } catch (ConnectException e) {
+                if (System.nanoTime() > deadline) {
+                    throw new TimeoutException("No coordinator on " + address[0] + ":" + address[1] + " in " +
+                        waitSec + " sec");
+                }
+                Thread.sleep(1000);
+            }
+        }
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        String name = InetAddress.getLocalHost().getHostName() + ":" + ProcessHandle.current().pid();
+        AgentProtocol.writeHello(out, name);
+        System.out.println("Connected to the coordinator as " + name + ", waiting for the run to start");
+    }
+
+    private void readTargets() {
+        try {
+            while (true) {
+                if (in.readByte() != AgentProtocol.TARGET) {
+                    throw new IOException("Unexpected message from the coordinator");
+                }
+                target.update(in.readUTF(), in.readInt());
+            }
+        } catch (IOException e) {
+            if (target.getThreadCountTarget() > 0) {
+                System.out.println("Coordinator lost, stopping: " + e);
+                target.stop();
+            }
+        }
+    }
+
+    /**
+     * Streams one second of the report to the coordinator, on the reporter thread.
+     */
+    private void send(long millis, Map<String, Long> values, Map<String, Histogram> intervals) {
+        sendLock.lock();
+        try {
+            AgentProtocol.writeSample(out, millis, values, intervals);
+        } catch (IOException e) {
+            // The reader sees the connection closing and stops the run.
+            System.out.println("Sample not sent: " + e);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Tells the coordinator the last sample was sent, once the report is closed.
+     */
+    void close() throws IOException {
+        sendLock.lock();
+        try {
+            out.writeByte(AgentProtocol.DONE);
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("Coordinator lost before the end of the run: " + e);
+        } finally {
+            sendLock.unlock();
+        }
+        socket.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String report = args.length > 0 ? args[0] : "/tmp/agent-" + ProcessHandle.current().pid() + ".txt";
+        System.out.println("Will generate the agent report in file " + report);
+        WorkerEngine engine = WorkerEngine.fromSystemProperties();
+        System.out.println("Using " + engine + " worker engine");
+        Stats stats = new Stats(report, RampUpAndDown.REPORT_COLUMNS);
+        stats.setFootprint(new GeneratorFootprint(engine.name()));
+        stats.setMonitor(new GeneratorMonitor(stats, engine));
+        LoadAgent agent = new LoadAgent(stats, engine);
+        agent.run();
+        stats.close();
+        agent.close();
+    }
+}
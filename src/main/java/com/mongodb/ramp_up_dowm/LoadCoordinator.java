@@ -0,0 +1,392 @@
+// Run with:
+//   mvn compile exec:java -Dexec.mainClass="com.mongodb.ramp_up_dowm.LoadCoordinator" -Dexec.args="/tmp/stresstest.txt" -Ddistributed.agents=3
+
+package com.mongodb.ramp_up_dowm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.mongodb.StubServer;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Runs the ramp up and down test on several {@link LoadAgent} processes, for loads one generator JVM
+ * can't drive. Listens on -Ddistributed.port (default 27100) and waits up to -Ddistributed.waitSec
+ * (default 120) for -Ddistributed.agents (default 2) agents. It then runs one {@link ConnectionTarget} on
+ * the merged agent samples, starting at the usual initial concurrency per agent, and splits its target
+ * evenly over the agents together with the phase, so every agent follows the same phase schedule. An agent
+ * that is lost stops counting and the others take over its share.
+ * <p>
+ * Agents stream every second of their report. Samples are grouped by the second of the agent clock they
+ * were taken in. Once every live agent reached a second, or once its first sample waited for
+ * -Ddistributed.roundTimeoutMs (default 3000), the second is merged into one report row: counts and
+ * gauges are summed, latency percentiles come from the merged histograms and the generator health values
+ * are those of the worst agent. The merged report, histogram log and phase summary are written as for a
+ * single generator, with an {@code agents} column counting the agents merged in each row. A sample that
+ * arrives for a second already merged, from an agent that paused, is dropped and counted in the report.
+ * <p>
+ * With -Dstub.embedded=true -Dstub.port=27018 the coordinator also hosts the stub server, so agents on the
+ * same host can run with -Dmongodb.uri=mongodb://localhost:27018.
+ */
+public class LoadCoordinator {
+    public static final String PORT_PROPERTY = "distributed.port";
+    public static final String AGENTS_PROPERTY = "distributed.agents";
+    public static final String WAIT_PROPERTY = "distributed.waitSec";
+    public static final String ROUND_TIMEOUT_PROPERTY = "distributed.roundTimeoutMs";
+    static final String AGENTS_KEY = "agents";
+
+    // Per generator values, the merged row has the worst agent's.
+    private static final Set<String> WORST_AGENT_KEYS = new HashSet<String>(Arrays.asList(
+        GeneratorFootprint.CPU_PER_CLIENT_KEY, GeneratorFootprint.RSS_PER_CLIENT_KEY,
+        GeneratorFootprint.CPU_PER_OP_KEY, GeneratorMonitor.SATURATED_KEY, GeneratorMonitor.CPU_PCT_KEY,
+        GeneratorMonitor.ALLOC_KEY, GeneratorMonitor.GC_PAUSE_KEY, GeneratorMonitor.THREADS_KEY,
+        ClientTopology.STARTUP_KEY));
+    private static final long STOP_TIMEOUT_SEC = 60;
+
+    /**
+     * Connection to one agent, its reader thread queues the samples.
+     */
+    private class Agent {
+        final String name;
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final BlockingQueue<AgentProtocol.Sample> samples = new LinkedBlockingQueue<AgentProtocol.Sample>();
+        volatile boolean done = false;
+        // Last target sent, only used by the coordinator thread.
+        String phase;
+        int target = -1;
+        // Latest second received and samples dropped for seconds already merged, coordinator thread only.
+        long lastSecond = Long.MIN_VALUE;
+        int lateSamples = 0;
+
+        Agent(String name, Socket socket, DataInputStream in) throws IOException {
+            this.name = name;
+            this.socket = socket;
+            this.in = in;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void read() {
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    if (type == AgentProtocol.DONE) {
+                        break;
+                    }
+                    if (type != AgentProtocol.SAMPLE) {
+                        throw new IOException("Unexpected message " + type);
+                    }
+                    samples.add(AgentProtocol.readSample(in));
+                }
+            } catch (IOException e) {
+                lost(e);
+            } finally {
+                done = true;
+            }
+        }
+
+        void lost(IOException e) {
+            if (!done) {
+                done = true;
+                System.out.println("Agent " + name + " lost: " + e);
+                stats.note("Agent " + name + " lost: " + e);
+            }
+        }
+    }
+
+    private final Stats stats;
+    private final int port;
+    private final int expectedAgents;
+    private final int waitSec;
+    private final long roundTimeoutMillis;
+    private final List<Agent> agents = new ArrayList<Agent>();
+    // Seconds received but not merged yet, and the last second merged. Coordinator thread only.
+    private final TreeMap<Long, Round> rounds = new TreeMap<Long, Round>();
+    private long lastMergedSecond = Long.MIN_VALUE;
+
+    /**
+     * The samples of one second, at most one per agent.
+     */
+    private static class Round {
+        final Map<Agent, AgentProtocol.Sample> samples = new LinkedHashMap<Agent, AgentProtocol.Sample>();
+        final long firstReceivedMillis;
+
+        Round(long firstReceivedMillis) {
+            this.firstReceivedMillis = firstReceivedMillis;
+        }
+    }
+
+    public LoadCoordinator(Stats stats) {
+        this.stats = stats;
+        this.port = Integer.getInteger(PORT_PROPERTY, 27100);
+        this.expectedAgents = Integer.getInteger(AGENTS_PROPERTY, 2);
+        this.waitSec = Integer.getInteger(WAIT_PROPERTY, 120);
+        this.roundTimeoutMillis = Long.getLong(ROUND_TIMEOUT_PROPERTY, 3000);
+        if (expectedAgents <= 0) {
+            throw new IllegalArgumentException("Agent count must be a positive value: " + expectedAgents);
+        }
+    }
+
+    /**
+     * Waits for the agents, runs the phases and merges the agent samples until the last agent is done.
+     */
+    public void run() throws Exception {
+        acceptAgents();
+        ConnectionTarget connectionTarget = new ConnectionTarget(stats,
+            agents.size() * (RampUpAndDown.MIN_READ_THREADS + RampUpAndDown.MIN_WRITE_THREADS));
+        while (true) {
+            while (mergeRound()) {
+            }
+            int target = connectionTarget.getThreadCountTarget();
+            sendTargets(connectionTarget.getState().name(), target);
+            if (target <= 0 || allDone()) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        System.out.println("Terminating...");
+        // The agents stop their workers and send their last seconds.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STOP_TIMEOUT_SEC);
+        while (!allDone() && System.nanoTime() < deadline) {
+            while (mergeRound()) {
+            }
+            Thread.sleep(100);
+        }
+        while (mergeRound()) {
+        }
+        for (Agent agent : agents) {
+            if (!agent.done) {
+                System.out.println("Agent " + agent.name + " did not stop in " + STOP_TIMEOUT_SEC + " sec");
+            }
+            if (agent.lateSamples > 0) {
+                stats.note("Agent " + agent.name + ": " + agent.lateSamples + " late samples dropped");
+            }
+            agent.socket.close();
+        }
+    }
+
+    private void acceptAgents() throws IOException, TimeoutException {
+        System.out.println("Waiting for " + expectedAgents + " agents on port " + port);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(waitSec);
+        try (ServerSocket server = new ServerSocket(port)) {
+            server.setSoTimeout(1000);
+            while (agents.size() < expectedAgents) {
+                if (System.nanoTime() > deadline) {
+                    throw new TimeoutException("Only " + agents.size() + " of " + expectedAgents +
+                        " agents connected in " + waitSec + " sec");
+                }
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+                try {
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(10000);
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    String name = AgentProtocol.readHello(in);
+                    socket.setSoTimeout(0);
+                    agents.add(new Agent(name, socket, in));
+                    System.out.println("Agent " + name + " connected, " + agents.size() + " of " + expectedAgents);
+                } catch (IOException e) {
+                    System.out.println("Rejected connection from " + socket.getRemoteSocketAddress() + ": " + e);
+                    socket.close();
+                }
+            }
+        }
+        StringBuilder names = new StringBuilder();
+        for (Agent agent : agents) {
+            names.append(names.length() == 0 ? "" : ", ").append(agent.name);
+            Thread reader = new Thread(agent::read, "agent-reader-" + agent.name);
+            reader.setDaemon(true);
+            reader.start();
+        }
+        stats.note("Agents: " + names);
+    }
+
+    /**
+     * Splits the target over the live agents, only sending the agents whose share or phase changed.
+     */
+    private void sendTargets(String phase, int target) {
+        List<Agent> live = new ArrayList<Agent>();
+        for (Agent agent : agents) {
+            if (!agent.done) {
+                live.add(agent);
+            }
+        }
+        for (int i = 0; i < live.size(); ++i) {
+            Agent agent = live.get(i);
+            // Agents stop on a zero target, so they all keep at least 1 until the end.
+            int share = target <= 0 ? 0 :
+                Math.max(1, target / live.size() + (i < target % live.size() ? 1 : 0));
+            if (share == agent.target && phase.equals(agent.phase)) {
+                continue;
+            }
+            try {
+                AgentProtocol.writeTarget(agent.out, phase, share);
+                agent.target = share;
+                agent.phase = phase;
+            } catch (IOException e) {
+                agent.lost(e);
+            }
+        }
+    }
+
+    private boolean allDone() {
+        for (Agent agent : agents) {
+            if (!agent.done) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the queued samples of the agents to the second they belong to.
+     */
+    private void collectSamples() {
+        for (Agent agent : agents) {
+            AgentProtocol.Sample sample;
+            while ((sample = agent.samples.poll()) != null) {
+                long second = sample.millis / 1000;
+                if (second <= lastMergedSecond) {
+                    ++agent.lateSamples;
+                    System.out.println("Agent " + agent.name + " sample of second " + second +
+                        " arrived after it was merged, dropped");
+                    continue;
+                }
+                agent.lastSecond = Math.max(agent.lastSecond, second);
+                Round round = rounds.get(second);
+                if (round == null) {
+                    round = new Round(sample.receivedMillis);
+                    rounds.put(second, round);
+                }
+                AgentProtocol.Sample previous = round.samples.put(agent, sample);
+                if (previous != null) {
+                    // Two reports in one second after a stall: values are per second rates and gauges,
+                    // the later ones stand, the latency intervals add up.
+                    for (Map.Entry<String, Histogram> entry : previous.intervals.entrySet()) {
+                        Histogram earlier = entry.getValue();
+                        Histogram h = sample.intervals.get(entry.getKey());
+                        if (h == null) {
+                            sample.intervals.put(entry.getKey(), earlier);
+                        } else {
+                            h.add(earlier);
+                            h.setStartTimeStamp(Math.min(h.getStartTimeStamp(), earlier.getStartTimeStamp()));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the oldest second once every live agent sent it or a later one, or once its first sample
+     * waited for the round timeout.
+     *
+     * @return true if a round was merged.
+     */
+    private boolean mergeRound() {
+        // Read before collecting, an agent is done only after its last sample was queued.
+        List<Agent> live = new ArrayList<Agent>();
+        for (Agent agent : agents) {
+            if (!agent.done) {
+                live.add(agent);
+            }
+        }
+        collectSamples();
+        Map.Entry<Long, Round> first = rounds.firstEntry();
+        if (first == null) {
+            return false;
+        }
+        boolean complete = true;
+        for (Agent agent : live) {
+            if (agent.lastSecond < first.getKey()) {
+                complete = false;
+            }
+        }
+        if (!complete && System.currentTimeMillis() - first.getValue().firstReceivedMillis < roundTimeoutMillis) {
+            return false;
+        }
+        rounds.pollFirstEntry();
+        lastMergedSecond = first.getKey();
+        long millis = 0;
+        int merged = 0;
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        Map<String, Histogram> intervals = new LinkedHashMap<String, Histogram>();
+        for (AgentProtocol.Sample sample : first.getValue().samples.values()) {
+            ++merged;
+            millis = Math.max(millis, sample.millis);
+            for (Map.Entry<String, Long> entry : sample.values.entrySet()) {
+                String key = entry.getKey();
+                if (WORST_AGENT_KEYS.contains(key)) {
+                    values.merge(key, entry.getValue(), Math::max);
+                } else {
+                    values.merge(key, entry.getValue(), Long::sum);
+                }
+            }
+            for (Map.Entry<String, Histogram> entry : sample.intervals.entrySet()) {
+                Histogram h = entry.getValue();
+                Histogram total = intervals.get(entry.getKey());
+                if (total == null) {
+                    intervals.put(entry.getKey(), h);
+                } else {
+                    total.add(h);
+                    total.setStartTimeStamp(Math.min(total.getStartTimeStamp(), h.getStartTimeStamp()));
+                    total.setEndTimeStamp(Math.max(total.getEndTimeStamp(), h.getEndTimeStamp()));
+                }
+            }
+        }
+        // Percentiles don't add up, they come from the merged histograms.
+        for (Map.Entry<String, Histogram> entry : intervals.entrySet()) {
+            Histogram h = entry.getValue();
+            values.put(entry.getKey() + "P50Us", h.getValueAtPercentile(50));
+            values.put(entry.getKey() + "P99Us", h.getValueAtPercentile(99));
+            values.put(entry.getKey() + "P999Us", h.getValueAtPercentile(99.9));
+            values.put(entry.getKey() + "MaxUs", h.getMaxValue());
+        }
+        values.put(AGENTS_KEY, (long) merged);
+        stats.addSample(millis, values, intervals, String.format(
+            "Merged %d agents: reads %d, writes %d, threads %d, read p99 %d us, write p99 %d us", merged,
+            values.getOrDefault("reads", 0L), values.getOrDefault("writes", 0L),
+            values.getOrDefault(Stats.READ_THREADS_KEY, 0L) + values.getOrDefault(Stats.WRITE_THREADS_KEY, 0L),
+            values.getOrDefault("readP99Us", 0L), values.getOrDefault("writeP99Us", 0L)));
+        return true;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String report = args.length > 0 ? args[0] : "/tmp/stresstest.txt";
+        System.out.println("Will generate the merged report in file " + report);
+        StubServer stub = StubServer.startIfEmbedded();
+        String[] columns = Arrays.copyOf(RampUpAndDown.REPORT_COLUMNS, RampUpAndDown.REPORT_COLUMNS.length + 1);
+        columns[columns.length - 1] = AGENTS_KEY;
+        Stats stats = new Stats(report, columns, false);
+        new LoadCoordinator(stats).run();
+        stats.close();
+        if (stub != null) {
+            System.out.println(stub.summary());
+            stub.close();
+        }
+    }
+}
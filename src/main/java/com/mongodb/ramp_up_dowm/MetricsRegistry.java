@@ -0,0 +1,53 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the named counters and latency histograms of a run. Lookups by name are lock free,
+ * but workers are expected to resolve their handles once and keep them, so the hot path is
+ * only the increment itself.
+ */
+public class MetricsRegistry {
+    private final ConcurrentMap<String, EventCounter> counters = new ConcurrentHashMap<String, EventCounter>();
+    private final ConcurrentMap<String, LatencyHistogram> latencies =
+        new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /**
+     * @return the counter with the given name, created on first use.
+     */
+    public EventCounter counter(String name) {
+        EventCounter counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, EventCounter::new);
+        }
+        return counter;
+    }
+
+    /**
+     * @return the latency histogram for the operation type, created on first use.
+     */
+    public LatencyHistogram latencyHistogram(String type) {
+        LatencyHistogram histogram = latencies.get(type);
+        if (histogram == null) {
+            histogram = latencies.computeIfAbsent(type, LatencyHistogram::new);
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the counter with the given name, or null if nobody registered it yet.
+     */
+    EventCounter findCounter(String name) {
+        return counters.get(name);
+    }
+
+    Collection<EventCounter> getCounters() {
+        return counters.values();
+    }
+
+    Collection<LatencyHistogram> getLatencyHistograms() {
+        return latencies.values();
+    }
+}
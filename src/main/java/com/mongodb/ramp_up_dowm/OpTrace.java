@@ -0,0 +1,287 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compact binary trace of every operation the generator issues, replayed by {@link TraceReplay}.
+ * Enabled with -Dtrace.file=&lt;path&gt;.
+ * <p>
+ * Layout: the magic number and the wall clock start time in ms, then one record per operation: the
+ * type byte ({@code R} range read, {@code W} update), the outcome byte (0 success, 1 failure), then
+ * varints of the intended start in microseconds since the trace start, the first student_id, the
+ * range width and the latency in microseconds. A record takes about 10 bytes. Records are written
+ * when operations complete, so they are only roughly ordered by start time.
+ * <p>
+ * Workers only encode their record and queue it, a background thread writes the file. When the writer
+ * falls more than {@link #QUEUE_CAPACITY} records behind, records are dropped and counted rather than
+ * slowing down the load.
+ */
+public class OpTrace implements Closeable {
+    public static final String FILE_PROPERTY = "trace.file";
+    static final int MAGIC = 0x4F505431; // OPT1
+    public static final byte READ = 'R';
+    public static final byte WRITE = 'W';
+    static final int QUEUE_CAPACITY = 1 << 20;
+    // Marks the end of the queue for the writer.
+    private static final byte[] END = new byte[0];
+
+    /**
+     * One traced operation.
+     */
+    public static class Op {
+        final byte type;
+        final long startMicros;
+        final long key;
+        final int width;
+        final long latencyMicros;
+        final boolean ok;
+
+        public Op(byte type, long startMicros, long key, int width, long latencyMicros, boolean ok) {
+            this.type = type;
+            this.startMicros = startMicros;
+            this.key = key;
+            this.width = width;
+            this.latencyMicros = latencyMicros;
+            this.ok = ok;
+        }
+    }
+
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private final AtomicLong dropped = new AtomicLong();
+    // Only used by the writer thread, until close().
+    private long count = 0;
+    private volatile IOException failure;
+
+    public OpTrace(String path, long startMillis) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 256 * 1024));
+        out.writeInt(MAGIC);
+        out.writeLong(startMillis);
+        writer = new Thread(this::write, "trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return the trace of the file in -Dtrace.file, or null when tracing is off.
+     */
+    static OpTrace fromSystemProperties() throws IOException {
+        String path = System.getProperty(FILE_PROPERTY);
+        if (path == null) {
+            return null;
+        }
+        System.out.println("Tracing operations to " + path);
+        return new OpTrace(path, System.currentTimeMillis());
+    }
+
+    /**
+     * Records an operation of this run. Thread safe.
+     *
+     * @param startNanos intended start, in {@link System#nanoTime()} units.
+     */
+    public void record(byte type, long startNanos, long key, int width, long latencyNanos, boolean ok) {
+        append(new Op(type, Math.max(0, TimeUnit.NANOSECONDS.toMicros(startNanos - this.startNanos)), key, width,
+            Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos)), ok));
+    }
+
+    /**
+     * Appends an operation with its own start offset. Thread safe, never blocks: the operation is dropped
+     * when the writer is too far behind.
+     */
+    public void append(Op op) {
+        if (!queue.offer(encode(op))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Appends an operation, waiting for the writer when it is behind. For offline conversions, which
+     * must not lose operations.
+     */
+    void put(Op op) throws InterruptedException {
+        queue.put(encode(op));
+    }
+
+    private static byte[] encode(Op op) {
+        byte[] record = new byte[2 + varLongSize(op.startMicros) + varLongSize(op.key) + varLongSize(op.width) +
+            varLongSize(op.latencyMicros)];
+        int length = 0;
+        record[length++] = op.type;
+        record[length++] = (byte) (op.ok ? 0 : 1);
+        length = putVarLong(record, length, op.startMicros);
+        length = putVarLong(record, length, op.key);
+        length = putVarLong(record, length, op.width);
+        putVarLong(record, length, op.latencyMicros);
+        return record;
+    }
+
+    /**
+     * Writer thread: writes the queued records until close(). After a write failure it keeps draining
+     * the queue, so close() is never blocked.
+     */
+    private void write() {
+        List<byte[]> records = new ArrayList<byte[]>();
+        try {
+            while (true) {
+                records.add(queue.take());
+                queue.drainTo(records);
+                for (byte[] record : records) {
+                    if (record == END) {
+                        return;
+                    }
+                    if (failure != null) {
+                        continue;
+                    }
+                    try {
+                        out.write(record);
+                        ++count;
+                    } catch (IOException e) {
+                        // Losing the trace must not fail the run.
+                        System.out.println("Trace failure: " + e);
+                        failure = e;
+                    }
+                }
+                records.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            ++size;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    private static int putVarLong(byte[] dest, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            dest[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dest[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Waits for the writer to write every queued record, then closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        // Blocks only while the queue is full.
+        try {
+            queue.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+        System.out.println("Traced " + count + " operations" +
+            (dropped.get() == 0 ? "" : ", dropped " + dropped.get() + " with the writer behind"));
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Reads a trace back as a stream ordered by intended start. Records are written on completion, so
+     * an operation can follow operations that started after it, by up to its latency. They are put back
+     * in order in a window as long as the longest latency read so far, at least 10 seconds as latency
+     * grows during the ramp up; an operation out of order by more than that is returned as soon as it is
+     * read. Only the window is held in memory.
+     */
+    public static class Reader implements Closeable {
+        static final long MIN_WINDOW_MICROS = TimeUnit.SECONDS.toMicros(10);
+
+        private final DataInputStream in;
+        private final PriorityQueue<Op> window =
+            new PriorityQueue<Op>(Comparator.comparingLong((Op op) -> op.startMicros));
+        private long windowMicros = MIN_WINDOW_MICROS;
+        private long lastCompletionMicros = 0;
+        private boolean eof = false;
+
+        public Reader(String path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 256 * 1024));
+            if (in.readInt() != MAGIC) {
+                in.close();
+                throw new IOException("Not an operation trace: " + path);
+            }
+            in.readLong();
+        }
+
+        /**
+         * @return the next operation, null at the end of the trace.
+         */
+        public Op next() throws IOException {
+            while (!eof) {
+                Op head = window.peek();
+                if (head != null && head.startMicros + windowMicros <= lastCompletionMicros) {
+                    // No operation read later can have started before this one.
+                    return window.poll();
+                }
+                Op op = readOp();
+                if (op == null) {
+                    eof = true;
+                } else {
+                    window.add(op);
+                    windowMicros = Math.max(windowMicros, op.latencyMicros);
+                    lastCompletionMicros = Math.max(lastCompletionMicros, op.startMicros + op.latencyMicros);
+                }
+            }
+            return window.poll();
+        }
+
+        private Op readOp() throws IOException {
+            byte type;
+            try {
+                type = in.readByte();
+            } catch (EOFException e) {
+                return null;
+            }
+            try {
+                boolean ok = in.readByte() == 0;
+                return new Op(type, readVarLong(in), readVarLong(in), (int) readVarLong(in), readVarLong(in), ok);
+            } catch (EOFException e) {
+                // The run was killed while writing the last record.
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
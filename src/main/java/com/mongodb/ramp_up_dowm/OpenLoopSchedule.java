@@ -0,0 +1,95 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands out intended operation start times at a constant arrival rate, shared by all workers
+ * of one operation type. Workers wait for their slot instead of sleeping a fixed interval
+ * after each operation, so a slow server does not reduce the offered load. Latency must be
+ * measured from the intended start returned by {@link #awaitNextStart()}, otherwise the time
+ * spent waiting for a free worker is hidden (coordinated omission).
+ */
+public class OpenLoopSchedule {
+    public static final String MODE_PROPERTY = "load.mode";
+    public static final String READ_RATE_PROPERTY = "load.readOpsPerSec";
+    public static final String WRITE_RATE_PROPERTY = "load.writeOpsPerSec";
+
+    private final long intervalNanos;
+    private final AtomicLong nextStart;
+
+    public OpenLoopSchedule(double opsPerSecond) {
+        if (opsPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be a positive value: " + opsPerSecond);
+        }
+        intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / opsPerSecond));
+        nextStart = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Restarts the schedule from now, called when the workers are launched so that the time spent
+     * setting up the clients does not turn into backlog.
+     */
+    public void start() {
+        nextStart.set(System.nanoTime());
+    }
+
+    /**
+     * Claims the next slot in the schedule and waits until it is due. Returns immediately
+     * if the slot is already in the past.
+     *
+     * @return the intended start time of the operation, in {@link System#nanoTime()} units.
+     */
+    public long awaitNextStart() throws InterruptedException {
+        long intended = claimNextStart();
+        awaitUntil(intended);
+        return intended;
+    }
+
+    /**
+     * Claims the next slot in the schedule without waiting, for workers that have something else to do
+     * before it is due. The caller must start the operation at the returned time, see {@link #awaitUntil}.
+     *
+     * @return the intended start time of the operation, in {@link System#nanoTime()} units.
+     */
+    public long claimNextStart() {
+        return nextStart.getAndAdd(intervalNanos);
+    }
+
+    /**
+     * Waits until the given {@link System#nanoTime()}, returns immediately if it is in the past.
+     */
+    public static void awaitUntil(long nanoTime) throws InterruptedException {
+        long delay;
+        while ((delay = nanoTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(delay);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * @return count of operations that should have been started already but were not picked
+     * up by any worker yet.
+     */
+    public long getBacklog() {
+        long behind = System.nanoTime() - nextStart.get();
+        return behind > 0 ? behind / intervalNanos : 0;
+    }
+
+    static boolean isOpenLoop() {
+        return "open".equalsIgnoreCase(System.getProperty(MODE_PROPERTY, "closed"));
+    }
+
+    /**
+     * @return the schedule for the rate in the given system property, or null in closed loop mode.
+     */
+    static OpenLoopSchedule fromSystemProperty(String rateProperty, int defaultRate) {
+        if (!isOpenLoop()) {
+            return null;
+        }
+        return new OpenLoopSchedule(Double.parseDouble(System.getProperty(rateProperty, String.valueOf(defaultRate))));
+    }
+}
@@ -0,0 +1,150 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Aggregates the per second report values by test phase ({@link ConnectionTarget.State}), so runs can
+ * be compared phase by phase without slicing the report by hand. Seconds before the first phase are
+ * not counted. Not thread safe, {@link Stats} only uses it from its reporter thread.
+ */
+class PhaseSummary {
+    static final String PREFIX = "Phase ";
+
+    /**
+     * Totals of one phase.
+     */
+    static class Phase {
+        final String name;
+        // Target concurrency when the phase started, the saturation point for STRESS.
+        final int startConcurrency;
+        final long startMillis;
+        long endMillis;
+        final List<Long> throughput = new ArrayList<Long>();
+        long operations;
+        long errors;
+        final Map<String, Histogram> latencies = new LinkedHashMap<String, Histogram>();
+
+        Phase(String name, int startConcurrency, long startMillis) {
+            this.name = name;
+            this.startConcurrency = startConcurrency;
+            this.startMillis = startMillis;
+            this.endMillis = startMillis;
+        }
+
+        long peakThroughput() {
+            return throughput.isEmpty() ? 0 : Collections.max(throughput);
+        }
+
+        long medianThroughput() {
+            if (throughput.isEmpty()) {
+                return 0;
+            }
+            List<Long> sorted = new ArrayList<Long>(throughput);
+            Collections.sort(sorted);
+            return sorted.get(sorted.size() / 2);
+        }
+
+        double errorRate() {
+            return operations + errors == 0 ? 0 : (double) errors / (operations + errors);
+        }
+    }
+
+    private final List<Phase> phases = new ArrayList<Phase>();
+
+    /**
+     * Ends the current phase and starts the next one.
+     */
+    void start(String name, int concurrency, long millis) {
+        if (!phases.isEmpty()) {
+            phases.get(phases.size() - 1).endMillis = millis;
+        }
+        phases.add(new Phase(name, concurrency, millis));
+    }
+
+    /**
+     * Adds one second of the report to the current phase.
+     *
+     * @param intervals latency histograms of the second by operation type, copied as needed.
+     */
+    void add(long millis, Map<String, Long> values, Map<String, Histogram> intervals) {
+        if (phases.isEmpty()) {
+            return;
+        }
+        Phase phase = phases.get(phases.size() - 1);
+        long operations = values.getOrDefault("reads", 0L) + values.getOrDefault("writes", 0L);
+        phase.throughput.add(operations);
+        phase.operations += operations;
+        phase.errors += values.getOrDefault("readFailure", 0L) + values.getOrDefault("writeFailure", 0L);
+        phase.endMillis = millis;
+        for (Map.Entry<String, Histogram> entry : intervals.entrySet()) {
+            Histogram total = phase.latencies.get(entry.getKey());
+            if (total == null) {
+                phase.latencies.put(entry.getKey(), entry.getValue().copy());
+            } else {
+                total.add(entry.getValue());
+            }
+        }
+    }
+
+    List<Phase> getPhases() {
+        return phases;
+    }
+
+    /**
+     * @return one line per phase with throughput, errors and the read and write latencies.
+     */
+    List<String> describe() {
+        List<String> lines = new ArrayList<String>();
+        for (Phase phase : phases) {
+            StringBuilder sb = new StringBuilder(PREFIX).append(phase.name)
+                .append(String.format(": %d sec, start concurrency %d, ops/sec peak %d median %d, error rate %.4f",
+                    (phase.endMillis - phase.startMillis) / 1000, phase.startConcurrency, phase.peakThroughput(),
+                    phase.medianThroughput(), phase.errorRate()));
+            for (String type : new String[]{ "read", "write" }) {
+                Histogram latency = phase.latencies.get(type);
+                if (latency != null && latency.getTotalCount() > 0) {
+                    sb.append(String.format(", %s us p50 %d p99 %d p99.9 %d max %d", type,
+                        latency.getValueAtPercentile(50), latency.getValueAtPercentile(99),
+                        latency.getValueAtPercentile(99.9), latency.getMaxValue()));
+                }
+            }
+            lines.add(sb.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the summary as tab separated {@code phase metric value} lines, every latency histogram
+     * included, for scripts comparing runs.
+     */
+    void write(String path) throws FileNotFoundException {
+        try (PrintStream out = new PrintStream(path)) {
+            out.println("# phase\tmetric\tvalue");
+            for (Phase phase : phases) {
+                out.println(phase.name + "\tseconds\t" + (phase.endMillis - phase.startMillis) / 1000);
+                out.println(phase.name + "\tstartConcurrency\t" + phase.startConcurrency);
+                out.println(phase.name + "\tpeakOpsPerSec\t" + phase.peakThroughput());
+                out.println(phase.name + "\tmedianOpsPerSec\t" + phase.medianThroughput());
+                out.println(phase.name + "\terrors\t" + phase.errors);
+                out.println(phase.name + "\terrorRate\t" + phase.errorRate());
+                for (Map.Entry<String, Histogram> entry : phase.latencies.entrySet()) {
+                    Histogram latency = entry.getValue();
+                    String type = entry.getKey();
+                    out.println(phase.name + "\t" + type + "P50Us\t" + latency.getValueAtPercentile(50));
+                    out.println(phase.name + "\t" + type + "P99Us\t" + latency.getValueAtPercentile(99));
+                    out.println(phase.name + "\t" + type + "P999Us\t" + latency.getValueAtPercentile(99.9));
+                    out.println(phase.name + "\t" + type + "MaxUs\t" + latency.getMaxValue());
+                    out.println(phase.name + "\t" + type + "Count\t" + latency.getTotalCount());
+                }
+            }
+        }
+    }
+}
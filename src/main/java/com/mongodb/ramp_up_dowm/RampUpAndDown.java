@@ -1,30 +1,27 @@
 package com.mongodb.ramp_up_dowm;
 
-import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Filters.gte;
-import static com.mongodb.client.model.Filters.lte;
 import static com.mongodb.client.model.Updates.set;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Random;
-import java.util.Vector;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
-import com.mongodb.client.FindIterable;
-import com.mongodb.ConnectionString;
-import com.mongodb.MongoClientSettings;
+import com.mongodb.StubServer;
 import com.mongodb.client.MongoClient;
-import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.result.UpdateResult;
-import com.mongodb.connection.ClusterSettings;
-import com.mongodb.connection.ConnectionPoolSettings;
 
 import org.bson.Document;
 import org.bson.conversions.Bson;
@@ -43,80 +40,110 @@ public class RampUpAndDown {
 
     static final int READ_INTERVAL_PER_THREAD_MS = 100;
 
-    static final int CLIENT_COUNT = 200;
+    static final String[] REPORT_COLUMNS = { "reads", "writes", Stats.READ_THREADS_KEY, Stats.WRITE_THREADS_KEY,
+        GeneratorFootprint.CPU_PER_CLIENT_KEY, GeneratorFootprint.RSS_PER_CLIENT_KEY, GeneratorFootprint.CPU_PER_OP_KEY,
+        GeneratorMonitor.SATURATED_KEY, GeneratorMonitor.CPU_PCT_KEY, GeneratorMonitor.ALLOC_KEY,
+        GeneratorMonitor.GC_PAUSE_KEY, GeneratorMonitor.THREADS_KEY, "schedLagP99Us", "schedLagMaxUs",
+        "readP50Us", "readP99Us", "readP999Us", "readMaxUs", "writeP50Us", "writeP99Us", "writeP999Us", "writeMaxUs",
+        "readBacklog", "writeBacklog", "writeBatches", "writeBatchP50Us", "writeBatchP99Us",
+        "poolWaitP50Us", "poolWaitP99Us", DriverMetrics.CHECKED_OUT_KEY, DriverMetrics.AVAILABLE_KEY,
+        "connectionsCreated", "connectionsClosed", "findCmdP50Us", "findCmdP99Us", "updateCmdP50Us",
+        "updateCmdP99Us", ClientTopology.STARTUP_KEY, DriverMetrics.OPEN_KEY, "readCpuP50Us", "readCpuP99Us",
+        "readFirstDocP50Us", "readFirstDocP99Us", "readDrainP50Us", "readDrainP99Us", "getMoreCmdP50Us",
+        "getMoreCmdP99Us" };
 
     private final Stats stats;
-    private static final Random rand = new Random();
+    private final WorkerEngine engine;
+    // Null in closed loop mode.
+    private final OpenLoopSchedule readSchedule =
+        OpenLoopSchedule.fromSystemProperty(OpenLoopSchedule.READ_RATE_PROPERTY, 5000);
+    private final OpenLoopSchedule writeSchedule =
+        OpenLoopSchedule.fromSystemProperty(OpenLoopSchedule.WRITE_RATE_PROPERTY, 1000);
+    static final long FIRST_STUDENT_ID = 10000;
+    static final int READ_KEY_COUNT = 50000;
+    static final int WRITE_KEY_COUNT = 1000;
+
+    private final KeyDistribution readKeys =
+        KeyDistribution.fromSystemProperty(KeyDistribution.READ_PROPERTY, FIRST_STUDENT_ID, READ_KEY_COUNT);
+    private final KeyDistribution writeKeys =
+        KeyDistribution.fromSystemProperty(KeyDistribution.WRITE_PROPERTY, FIRST_STUDENT_ID, WRITE_KEY_COUNT);
+    // Null in single update mode.
+    private final BulkWriteBatcher.Settings bulkWriteSettings = BulkWriteBatcher.Settings.fromSystemProperties();
+    private final ReadQuery readQuery = ReadQuery.fromSystemProperties();
+    // Null unless -Dtrace.file is set.
+    private final OpTrace trace;
+    private final LatencyHistogram readLatency;
+    // CPU time of the read worker per read, including the decoding of the reply.
+    private final LatencyHistogram readCpu;
+    // From sending the find to the first document, and to the end of the cursor.
+    private final LatencyHistogram readFirstDoc;
+    private final LatencyHistogram readDrain;
+    private final LatencyHistogram writeLatency;
+    private final EventCounter reads;
+    private final EventCounter writes;
+    private final EventCounter readFailures;
+    private final EventCounter writeFailures;
+    private final DriverMetrics driverMetrics;
 
     private final ReentrantLock lock = new ReentrantLock();
-    private Vector<MongoClient> clients = new Vector<MongoClient>();
-    private ConcurrentLinkedDeque<ReadThread> readThreads = new ConcurrentLinkedDeque<ReadThread>();
-    private ConcurrentLinkedDeque<WriteThread> writeThreads = new ConcurrentLinkedDeque<WriteThread>();
-    private ConnectionTarget connectionTarget;
+    private final ClientTopology clients;
+    // Live workers. Workers remove themselves on exit, so the coordinator never scans these.
+    private final Set<ReadThread> readThreads = ConcurrentHashMap.newKeySet();
+    private final Set<WriteThread> writeThreads = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger readThreadCount = new AtomicInteger();
+    private final AtomicInteger writeThreadCount = new AtomicInteger();
+    // Read workers that have a result ready. Each worker is queued at most once at a time.
+    private final BlockingQueue<WorkThread> completions = new LinkedBlockingQueue<WorkThread>();
+    private final ConnectionTarget connectionTarget;
+
+    public RampUpAndDown(Stats stats, WorkerEngine engine) throws Exception {
+        this(stats, engine, new ConnectionTarget(stats, MIN_READ_THREADS + MIN_WRITE_THREADS));
+    }
 
-    public RampUpAndDown(Stats stats) throws Exception {
+    /**
+     * @param connectionTarget phase schedule to follow, e.g. the one of a {@link LoadCoordinator}.
+     */
+    public RampUpAndDown(Stats stats, WorkerEngine engine, ConnectionTarget connectionTarget) throws Exception {
         this.stats = stats;
-        connectionTarget = new ConnectionTarget(stats, MIN_READ_THREADS + MIN_WRITE_THREADS);
-        for (int i = 0; i < CLIENT_COUNT; ++i) {
-            try {
-                MongoClient mongoClient = createClient();
-                clients.add(mongoClient);
-            } catch (Exception e) {
-                System.out.println("Error creating client: " + e);
-                e.printStackTrace();
-                throw e;
-            }
-            if ((i % 100) == 0) {
-                System.out.println("Initialized " + i + " clients");
-            }
-        }
-        System.out.println("Initialized clients");
+        this.engine = engine;
+        this.readLatency = stats.latencyHistogram("read");
+        this.readCpu = stats.latencyHistogram("readCpu");
+        this.readFirstDoc = stats.latencyHistogram("readFirstDoc");
+        this.readDrain = stats.latencyHistogram("readDrain");
+        this.writeLatency = stats.latencyHistogram("write");
+        this.reads = stats.counter("reads");
+        this.writes = stats.counter("writes");
+        this.readFailures = stats.counter("readFailure");
+        this.writeFailures = stats.counter("writeFailure");
+        this.driverMetrics = new DriverMetrics(stats, true);
+        this.trace = OpTrace.fromSystemProperties();
+        this.connectionTarget = connectionTarget;
+        clients = new ClientTopology(driverMetrics);
+        clients.start();
+        stats.setGauge(ClientTopology.STARTUP_KEY, clients.getStartupMillis());
+        stats.note("Client topology: " + clients.describe());
     }
 
-    protected static MongoClient createClient() throws Exception {
-        MongoClientSettings.Builder optionsBuilder = MongoClientSettings.builder();
-        ConnectionPoolSettings settings = ConnectionPoolSettings.builder()
-            .maxConnectionIdleTime(30000, TimeUnit.MILLISECONDS)
-            .maxSize(40)
-            .maxWaitTime(60000, TimeUnit.MILLISECONDS)
-            .maxConnectionLifeTime(1800000, TimeUnit.MILLISECONDS)
-            .build();
-        optionsBuilder.applyToConnectionPoolSettings(builder -> builder.applySettings(settings));
-
-        ClusterSettings clusterSettings = ClusterSettings.builder()
-            .applyConnectionString(new ConnectionString(System.getProperty("mongodb.uri")))
-            .localThreshold(50, TimeUnit.MILLISECONDS)
-            .serverSelectionTimeout(30000, TimeUnit.MILLISECONDS)
-            .build();
-        optionsBuilder.applyToClusterSettings(builder -> builder.applySettings(clusterSettings));
-        MongoClientSettings clientSettings = optionsBuilder.build();
-
-        while (true) {
-            try {
-                MongoClient mongoClient = MongoClients.create(clientSettings);
-                // Do a test read.
-                MongoDatabase sampleTrainingDB = mongoClient.getDatabase("sample_training");
-                MongoCollection<Document> gradesCollection = sampleTrainingDB.getCollection("grades");
-                long studentId = 10000;
-                ArrayList<Document> result = gradesCollection.find(
-                    eq("student_id", studentId)).into(new ArrayList<>());
-                if (result.isEmpty()) {
-                    throw new Exception("Can't read");
-                }
-                return mongoClient;
-            } catch (Exception e) {
-                System.out.println("Error creating client: " + e);
-            }
-        }
+    /**
+     * @return the client topology and the connections it needed, for the end of run summary.
+     */
+    String topologySummary() {
+        return "Client topology: " + clients.describe() + ", " + driverMetrics.summary();
     }
 
     void initThreads() {
+        if (readSchedule != null) {
+            readSchedule.start();
+        }
+        if (writeSchedule != null) {
+            writeSchedule.start();
+        }
         lock.lock();
         try {
-            while (readThreads.size() < MIN_READ_THREADS) {
+            while (readThreadCount.get() < MIN_READ_THREADS) {
                 maybeAddReadThreadLocked();
             }
-            while (writeThreads.size() < MIN_WRITE_THREADS) {
+            while (writeThreadCount.get() < MIN_WRITE_THREADS) {
                 maybeAddWriteThreadLocked();
             }
         } finally {
@@ -124,36 +151,37 @@ public class RampUpAndDown {
         }
     }
 
-    public Document read() throws InterruptedException, IOException {
-        // Find a thread with result.
+    /**
+     * @return the result of a read worker, which is then terminated, or null once the run is over.
+     */
+    public Bson read() throws InterruptedException, IOException {
+        // Take a thread with result from the completion queue.
         while (true) {
             lock.lock();
             try {
-                while (readThreads.size() + writeThreads.size() < connectionTarget.getThreadCountTarget() - 1) {
+                while (threadCount() < connectionTarget.getThreadCountTarget() - 1) {
                     maybeAddReadThreadLocked();
-                    stats.logStatsIfNeeded();
                     Thread.sleep(1);
                 }
-                Iterator<ReadThread> it = readThreads.iterator();
-                while (it.hasNext()) {
-                    ReadThread t = it.next();
-                    Thread.State state = t.getState();
-                    if (state == Thread.State.TERMINATED) {
-                        it.remove();
-                        stats.setThreadCount(readThreads.size(), true);
-                    }
-                    Document doc = t.getResult();
-                    if (doc != null) {
-                        t.terminate();
-                        return doc;
-                    }
-                }
             } catch (InterruptedException e) {
                 e.printStackTrace();
             } finally {
                 lock.unlock();
             }
-            Thread.sleep(10);
+            WorkThread t = completions.poll(10, TimeUnit.MILLISECONDS);
+            if (t == null) {
+                if (!shouldContinue()) {
+                    // Ramp down is over and no read worker is left to complete.
+                    return null;
+                }
+                continue;
+            }
+            t.dequeued();
+            Bson doc = t.getResult();
+            if (doc != null) {
+                t.terminate();
+                return doc;
+            }
         }
     }
 
@@ -168,42 +196,84 @@ public class RampUpAndDown {
 
     private void maybeAddReadThreadLocked() {
         assert(lock.isLocked());
-        if (readThreads.size() + writeThreads.size() >= connectionTarget.getThreadCountTarget()) {
+        if (threadCount() >= connectionTarget.getThreadCountTarget()) {
             return;
         }
         ReadThread t = new ReadThread(this, stats);
         readThreads.add(t);
+        stats.setThreadCount(readThreadCount.incrementAndGet(), true);
         t.start();
-        stats.setThreadCount(readThreads.size(), true);
     }
 
     private void maybeAddWriteThreadLocked() {
         assert(lock.isLocked());
-        while (writeThreads.size() < MAX_WRITE_THREADS &&
-            readThreads.size() + writeThreads.size() < connectionTarget.getThreadCountTarget()) {
+        while (writeThreadCount.get() < MAX_WRITE_THREADS &&
+            threadCount() < connectionTarget.getThreadCountTarget()) {
             WriteThread t = new WriteThread(this, stats);
             writeThreads.add(t);
+            stats.setThreadCount(writeThreadCount.incrementAndGet(), false);
             t.start();
         }
-        Iterator<WriteThread> it;
-        int i;
-        for (i = 0, it = writeThreads.iterator(); it.hasNext() && i < 100; ++i) {
-            WriteThread existingThread = it.next();
-            if (existingThread == null || existingThread.getState() != Thread.State.TERMINATED) {
-                continue;
-            }
-            it.remove();
+    }
+
+    private int threadCount() {
+        return readThreadCount.get() + writeThreadCount.get();
+    }
+
+    /**
+     * Called by every worker when its run loop exits.
+     */
+    private void onWorkerExit(WorkThread t) {
+        if (t instanceof ReadThread && readThreads.remove(t)) {
+            stats.setThreadCount(readThreadCount.decrementAndGet(), true);
+        } else if (t instanceof WriteThread && writeThreads.remove(t)) {
+            stats.setThreadCount(writeThreadCount.decrementAndGet(), false);
         }
-        stats.setThreadCount(writeThreads.size(), false);
     }
 
-    static abstract class WorkThread extends Thread {
+    /**
+     * Worker logic, executed on a thread created by the {@link WorkerEngine}.
+     */
+    static abstract class WorkThread implements Runnable {
         protected RampUpAndDown parent;
+        private Thread thread;
         private final ReentrantLock threadLock = new ReentrantLock();
         private boolean terminateFlag = false;
-        private Document document;
+        private Bson document;
         private Exception failure = null;
         protected Stats stats;
+        // Counts every non null result.
+        protected EventCounter results;
+        // Where results are published for the coordinator, null if nobody consumes them.
+        protected BlockingQueue<WorkThread> completions;
+        // Picks the client of the worker, see ClientTopology.
+        protected int clientSlot;
+        private final AtomicBoolean queued = new AtomicBoolean();
+
+        /**
+         * The worker loop.
+         */
+        protected abstract void work();
+
+        @Override
+        public final void run() {
+            try {
+                work();
+            } finally {
+                if (parent != null) {
+                    parent.onWorkerExit(this);
+                }
+            }
+        }
+
+        public void start() {
+            thread = parent.engine.newThread(this);
+            thread.start();
+        }
+
+        public Thread.State getState() {
+            return thread == null ? Thread.State.NEW : thread.getState();
+        }
 
         public void terminate() {
             threadLock.lock();
@@ -214,10 +284,10 @@ public class RampUpAndDown {
             }
         }
 
-        public Document getResult() {
+        public Bson getResult() {
             threadLock.lock();
             try {
-                Document result = document;
+                Bson result = document;
                 document = null;
                 if (failure != null) {
                     return null;
@@ -237,16 +307,26 @@ public class RampUpAndDown {
             }
         }
 
-        protected void setResult(Document doc) {
+        protected void setResult(Bson doc) {
             threadLock.lock();
             try {
                 document = doc;
-                if (document != null) {
-                    stats.registerEvent("reads");
-                }
             } finally {
                 threadLock.unlock();
             }
+            if (doc != null) {
+                results.increment();
+                if (completions != null && queued.compareAndSet(false, true)) {
+                    completions.add(this);
+                }
+            }
+        }
+
+        /**
+         * Called by the coordinator after taking this worker from the completion queue.
+         */
+        void dequeued() {
+            queued.set(false);
         }
 
         protected void setFailure(Exception e) {
@@ -260,18 +340,45 @@ public class RampUpAndDown {
     }
 
     static class ReadThread extends WorkThread {
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        private final KeyDistribution.KeyGenerator keys;
+
         public ReadThread(RampUpAndDown parent, Stats stats) {
             this.parent = parent;
             this.stats = stats;
+            this.results = parent.reads;
+            this.completions = parent.completions;
+            this.keys = parent.readKeys.newGenerator();
+            this.clientSlot = parent.clients.newSlot();
         }
 
-        public void run() {
+        @Override
+        protected void work() {
             int loops = 0;
             try {
                 while (shouldContinue()) {
-                    Document doc = parent.doRead(null, 50);
+                    OpenLoopSchedule schedule = parent.readSchedule;
+                    long start = schedule == null ? System.nanoTime() : schedule.awaitNextStart();
+                    // -1 on virtual threads, their CPU time is not tracked.
+                    long cpuStart = THREADS.getCurrentThreadCpuTime();
+                    long key = keys.nextKey();
+                    Bson doc;
+                    try {
+                        doc = parent.doRead(parent.clients.get(clientSlot), key);
+                    } catch (Exception e) {
+                        parent.trace(OpTrace.READ, start, key, parent.readQuery.getRangeWidth(), false);
+                        throw e;
+                    }
+                    parent.readLatency.recordNanos(System.nanoTime() - start);
+                    parent.trace(OpTrace.READ, start, key, parent.readQuery.getRangeWidth(), doc != null);
+                    if (cpuStart >= 0) {
+                        parent.readCpu.recordNanos(THREADS.getCurrentThreadCpuTime() - cpuStart);
+                    }
                     setResult(doc);
-                    Thread.sleep(READ_INTERVAL_PER_THREAD_MS);
+                    if (schedule == null) {
+                        Thread.sleep(READ_INTERVAL_PER_THREAD_MS);
+                    }
                     ++loops;
                 }
                 // System.out.println(String.format("Thread %d is terminated after %d loops", 
@@ -279,7 +386,7 @@ public class RampUpAndDown {
             } catch (Exception e) {
                 setResult(null);
                 setFailure(e);
-                stats.registerEvent("readFailure");
+                parent.readFailures.increment();
                 //System.out.println("Read failure: " + e + " on loop " + loops);
                 e.printStackTrace();
             }
@@ -287,29 +394,51 @@ public class RampUpAndDown {
     }
 
     static class WriteThread extends WorkThread {
-        private static final Random rand = new Random();
+        private final KeyDistribution.KeyGenerator keys;
+
         public WriteThread(RampUpAndDown parent, Stats stats) {
             this.parent = parent;
             this.stats = stats;
+            this.results = parent.reads;
+            this.keys = parent.writeKeys.newGenerator();
+            this.clientSlot = parent.clients.newSlot();
         }
 
-        public void run() {
+        @Override
+        protected void work() {
             int loops = 0;
             MongoClient mongoClient = null;
             try {
-                mongoClient = parent.getClient();
+                mongoClient = parent.clients.get(clientSlot);
                 MongoDatabase sampleTrainingDB = mongoClient.getDatabase("sample_training");
                 MongoCollection<Document> gradesCollection = sampleTrainingDB.getCollection("grades")
                     .withWriteConcern(sampleTrainingDB.getWriteConcern().withWTimeout(30000, TimeUnit.MILLISECONDS));
 
+                OpenLoopSchedule schedule = parent.writeSchedule;
+                if (parent.bulkWriteSettings != null) {
+                    workBulk(gradesCollection, schedule);
+                    return;
+                }
                 for (loops = 0; loops < 200; ++loops) {
-                    Bson filter = eq("student_id", 10000 + rand.nextInt(1000));
-                    Bson updateOperation = set("class_id", rand.nextInt(10));
-                    UpdateResult updateResult = gradesCollection.updateOne(filter, updateOperation);
+                    long start = schedule == null ? System.nanoTime() : schedule.awaitNextStart();
+                    long key = keys.nextKey();
+                    Bson filter = eq("student_id", key);
+                    Bson updateOperation = set("class_id", ThreadLocalRandom.current().nextInt(10));
+                    UpdateResult updateResult;
+                    try {
+                        updateResult = gradesCollection.updateOne(filter, updateOperation);
+                    } catch (RuntimeException e) {
+                        parent.trace(OpTrace.WRITE, start, key, 0, false);
+                        throw e;
+                    }
+                    parent.writeLatency.recordNanos(System.nanoTime() - start);
+                    parent.trace(OpTrace.WRITE, start, key, 0, true);
                     if (updateResult.getModifiedCount() > 0) {
-                        stats.registerEvent("writes");
+                        parent.writes.increment();
+                    }
+                    if (schedule == null) {
+                        Thread.sleep(100);
                     }
-                    Thread.sleep(100);
                 }
             } catch (IllegalStateException e) {
                 System.out.println("Replace client failed with: " + e);
@@ -317,68 +446,89 @@ public class RampUpAndDown {
             } catch (Exception e) {
                 setResult(null);
                 setFailure(e);
-                stats.registerEvent("writeFailure");
+                parent.writeFailures.increment();
                 System.out.println("Write failure: " + e);
                 System.out.println(e);
                 e.printStackTrace();
             }
         }
-    }
 
-    private MongoClient getClient() {
-        lock.lock();
-        try {
-            return clients.get(rand.nextInt(clients.size()));
-        } finally {
-            lock.unlock();
+        /**
+         * Sends the updates in bulkWrite batches. In closed loop mode every loop sends a full batch,
+         * in open loop mode updates are added on schedule and sent when the batch is full or due.
+         */
+        private void workBulk(MongoCollection<Document> gradesCollection, OpenLoopSchedule schedule)
+                throws InterruptedException {
+            BulkWriteBatcher batcher = new BulkWriteBatcher(gradesCollection, parent.bulkWriteSettings, stats,
+                parent.trace);
+            try {
+                for (int loops = 0; loops < 200; ++loops) {
+                    if (schedule == null) {
+                        while (!batcher.isFull()) {
+                            batcher.add(keys.nextKey(), System.nanoTime());
+                        }
+                        batcher.flush();
+                        Thread.sleep(100);
+                    } else {
+                        long start = schedule.claimNextStart();
+                        // A worker with a low share of the rate must not hold its updates past the flush
+                        // interval waiting for its next slot.
+                        if (batcher.getDueNanos() < start) {
+                            OpenLoopSchedule.awaitUntil(batcher.getDueNanos());
+                            batcher.flush();
+                        }
+                        OpenLoopSchedule.awaitUntil(start);
+                        batcher.add(keys.nextKey(), start);
+                        if (batcher.isFull() || batcher.isDue(System.nanoTime())) {
+                            batcher.flush();
+                        }
+                    }
+                }
+            } catch (InterruptedException | RuntimeException e) {
+                // Send what is pending without hiding the failure that ended the loop.
+                try {
+                    batcher.flush();
+                } catch (RuntimeException flushFailure) {
+                    e.addSuppressed(flushFailure);
+                }
+                throw e;
+            }
+            batcher.flush();
         }
     }
 
     private void replaceClient(MongoClient client) {
         stats.registerEvent("replaceClient");
-        lock.lock();
         try {
-            for (int i = 0; i < clients.size(); ++i) {
-                if (clients.get(i) == client) {
-                    try {
-                        clients.set(i, createClient());
-                        stats.registerEvent("newConnection");
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        System.exit(1);
-                    }
-                    break;
-                }
-            }
-        } finally {
-            lock.unlock();
+            clients.replace(client);
+            stats.registerEvent("newConnection");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
         }
     }
 
     /**
-     * @param mongoClient use null to get a client from the pool.
-     * @return first document
+     * @param mongoClient client picked by the worker.
+     * @param studentId first student of the range to read, see {@link ReadQuery}.
+     * @return last document of the range, decoded as set by read.decode.
      */
-    private Document doRead(MongoClient mongoClient, int count) throws Exception {
-        if (mongoClient == null) {
-            mongoClient = getClient();
-            assert(mongoClient != null);
-        }
-        if (count <= 1) {
-            count = 100;
-        }
+    private Bson doRead(MongoClient mongoClient, long studentId) throws Exception {
         try {
             MongoDatabase sampleTrainingDB = mongoClient.getDatabase("sample_training");
             MongoCollection<Document> gradesCollection = sampleTrainingDB.getCollection("grades");
-            long studentId = 10000 + rand.nextInt(50000);
-            FindIterable<Document> iterable =
-                gradesCollection.find(
-                    and(gte("student_id", studentId), lte("student_id", studentId + count)))
-                .maxTime(400, TimeUnit.MILLISECONDS);
-            Document result = null;
-            for (Document doc : iterable) {
-                result = doc;
+            Bson result = null;
+            long start = System.nanoTime();
+            // The find runs in iterator(), every later batch in a getMore (getMoreCmd histogram).
+            try (MongoCursor<? extends Bson> cursor = readQuery.find(gradesCollection, studentId).iterator()) {
+                if (cursor.hasNext()) {
+                    readFirstDoc.recordNanos(System.nanoTime() - start);
+                }
+                while (cursor.hasNext()) {
+                    result = cursor.next();
+                }
             }
+            readDrain.recordNanos(System.nanoTime() - start);
             if (result == null) {
                 throw new Exception("No results found");
             }
@@ -393,35 +543,28 @@ public class RampUpAndDown {
         }
     }
 
-    private void stop() throws IOException {
-        while (true) {
-            Iterator<ReadThread> it = readThreads.iterator();
-            while (it.hasNext()) {
-                ReadThread t = it.next();
-                Thread.State state = t.getState();
-                if (state == Thread.State.TERMINATED) {
-                    it.remove();
-                    stats.setThreadCount(readThreads.size(), true);
-                }
-                t.terminate();
-            }
-            Iterator<WriteThread> it2 = writeThreads.iterator();
-            while (it2.hasNext()) {
-                WriteThread t = it2.next();
-                Thread.State state = t.getState();
-                if (state == Thread.State.TERMINATED) {
-                    it2.remove();
-                    stats.setThreadCount(writeThreads.size(), false);
-                }
-                t.terminate();
-            }
-            stats.logStatsIfNeeded();
-            if (readThreads.size() + writeThreads.size() == 0) {
-                break;
-            }
+    private void stop() throws IOException, InterruptedException {
+        for (ReadThread t : readThreads) {
+            t.terminate();
+        }
+        for (WriteThread t : writeThreads) {
+            t.terminate();
         }
-        for (MongoClient client : clients) {
-            client.close();
+        while (threadCount() > 0) {
+            Thread.sleep(10);
+        }
+        clients.close();
+        if (trace != null) {
+            trace.close();
+        }
+    }
+
+    /**
+     * Adds a completed operation to the trace, if tracing is on.
+     */
+    private void trace(byte type, long start, long key, int width, boolean ok) {
+        if (trace != null) {
+            trace.record(type, start, key, width, System.nanoTime() - start, ok);
         }
     }
 
@@ -429,24 +572,62 @@ public class RampUpAndDown {
         return connectionTarget.getThreadCountTarget() > 0;
     }
 
+    private void updateBacklog() {
+        if (readSchedule != null) {
+            stats.setGauge("readBacklog", readSchedule.getBacklog());
+        }
+        if (writeSchedule != null) {
+            stats.setGauge("writeBacklog", writeSchedule.getBacklog());
+        }
+    }
+
+    /**
+     * Runs the workers until the target drops to zero, then stops them.
+     */
+    void run() throws Exception {
+        initThreads();
+        while (shouldContinue()) {
+            read();
+            Thread.sleep(20);
+            write();
+            updateBacklog();
+            Thread.sleep(20);
+        }
+        System.out.println("Terminating...");
+        stop();
+        System.out.println(topologySummary());
+        stats.note(topologySummary());
+    }
+
     public static void main(String[] args) throws Exception {
         String report = "/tmp/stresstest.txt";
         if (args.length > 0) {
             report = args[0];
         }
         System.out.println("Will generate the report in file " + report);
-        Stats stats = new Stats(report, new String[]{ "reads", "writes", Stats.READ_THREADS_KEY, Stats.WRITE_THREADS_KEY });
-        RampUpAndDown test = new RampUpAndDown(stats);
-        test.initThreads();
-        while (test.shouldContinue()) {
-            test.read();
-            Thread.sleep(20);
-            test.write();
-            stats.logStatsIfNeeded();
-            Thread.sleep(20);
+        StubServer stub = StubServer.startIfEmbedded();
+        WorkerEngine engine = WorkerEngine.fromSystemProperties();
+        System.out.println("Using " + engine + " worker engine");
+        System.out.println("Load mode: " + (OpenLoopSchedule.isOpenLoop() ? "open loop" : "closed loop"));
+        BulkWriteBatcher.Settings bulkWriteSettings = BulkWriteBatcher.Settings.fromSystemProperties();
+        System.out.println("Read keys: " + KeyDistribution.fromSystemProperty(KeyDistribution.READ_PROPERTY,
+            FIRST_STUDENT_ID, READ_KEY_COUNT));
+        System.out.println("Write keys: " + KeyDistribution.fromSystemProperty(KeyDistribution.WRITE_PROPERTY,
+            FIRST_STUDENT_ID, WRITE_KEY_COUNT));
+        System.out.println("Write mode: " + (bulkWriteSettings == null ? "single updateOne" : bulkWriteSettings));
+        System.out.println("Read query: " + ReadQuery.fromSystemProperties());
+        Stats stats = new Stats(report, REPORT_COLUMNS);
+        stats.setFootprint(new GeneratorFootprint(engine.name()));
+        stats.setMonitor(new GeneratorMonitor(stats, engine));
+        if (engine == WorkerEngine.REACTIVE) {
+            new ReactiveLoad(stats).run();
+        } else {
+            new RampUpAndDown(stats, engine).run();
         }
-        System.out.println("Terminating...");
-        test.stop();
         stats.close();
+        if (stub != null) {
+            System.out.println(stub.summary());
+            stub.close();
+        }
     }
 }
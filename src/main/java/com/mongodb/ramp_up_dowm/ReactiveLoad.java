@@ -0,0 +1,299 @@
+package com.mongodb.ramp_up_dowm;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Updates.set;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.connection.AsynchronousSocketChannelStreamFactoryFactory;
+import com.mongodb.connection.ClusterSettings;
+import com.mongodb.connection.ConnectionPoolSettings;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Alternative to the thread per worker engines: keeps N operations in flight with the reactive
+ * streams driver, running on a small fixed event loop pool. N follows the {@link ConnectionTarget}
+ * phases, split between reads and writes in the same proportion as the minimal thread counts.
+ */
+public class ReactiveLoad {
+    public static final String EVENT_LOOP_THREADS_PROPERTY = "reactive.eventLoopThreads";
+    public static final String POOL_SIZE_PROPERTY = "reactive.poolSize";
+
+    static final double READ_SHARE = (double) RampUpAndDown.MIN_READ_THREADS /
+        (RampUpAndDown.MIN_READ_THREADS + RampUpAndDown.MIN_WRITE_THREADS);
+
+    private final Stats stats;
+    private final ConnectionTarget connectionTarget;
+    private final AsynchronousChannelGroup eventLoop;
+    private final MongoClient client;
+    private final MongoCollection<Document> gradesCollection;
+
+    private final AtomicInteger inFlightReads = new AtomicInteger();
+    private final AtomicInteger inFlightWrites = new AtomicInteger();
+    private final KeyDistribution readKeys = KeyDistribution.fromSystemProperty(KeyDistribution.READ_PROPERTY,
+        RampUpAndDown.FIRST_STUDENT_ID, RampUpAndDown.READ_KEY_COUNT);
+    private final KeyDistribution writeKeys = KeyDistribution.fromSystemProperty(KeyDistribution.WRITE_PROPERTY,
+        RampUpAndDown.FIRST_STUDENT_ID, RampUpAndDown.WRITE_KEY_COUNT);
+    // Operations are issued from the coordinator and the event loop threads, each keeps its own generators.
+    private final ThreadLocal<KeyDistribution.KeyGenerator> readKeyGenerator =
+        ThreadLocal.withInitial(readKeys::newGenerator);
+    private final ThreadLocal<KeyDistribution.KeyGenerator> writeKeyGenerator =
+        ThreadLocal.withInitial(writeKeys::newGenerator);
+    private final ReadQuery readQuery = ReadQuery.fromSystemProperties();
+    // Null unless -Dtrace.file is set.
+    private final OpTrace trace;
+    private volatile int readTarget;
+    private volatile int writeTarget;
+    // Set while the thread runs issueReads() or issueWrites().
+    private final ThreadLocal<boolean[]> readIssuing = ThreadLocal.withInitial(() -> new boolean[1]);
+    private final ThreadLocal<boolean[]> writeIssuing = ThreadLocal.withInitial(() -> new boolean[1]);
+
+    private final LatencyHistogram readLatency;
+    private final LatencyHistogram readFirstDoc;
+    private final LatencyHistogram readDrain;
+    private final LatencyHistogram writeLatency;
+    private final EventCounter reads;
+    private final EventCounter writes;
+    private final EventCounter readFailures;
+    private final EventCounter writeFailures;
+
+    public ReactiveLoad(Stats stats) throws IOException {
+        this(stats, new ConnectionTarget(stats, RampUpAndDown.MIN_READ_THREADS + RampUpAndDown.MIN_WRITE_THREADS));
+    }
+
+    /**
+     * @param connectionTarget phase schedule to follow, e.g. the one of a {@link LoadCoordinator}.
+     */
+    public ReactiveLoad(Stats stats, ConnectionTarget connectionTarget) throws IOException {
+        this.stats = stats;
+        this.connectionTarget = connectionTarget;
+        int eventLoopThreads = Integer.getInteger(EVENT_LOOP_THREADS_PROPERTY,
+            Runtime.getRuntime().availableProcessors());
+        this.eventLoop = AsynchronousChannelGroup.withFixedThreadPool(eventLoopThreads, r -> {
+            Thread t = new Thread(r, "reactive-event-loop");
+            t.setDaemon(true);
+            return t;
+        });
+        this.client = createClient(eventLoop, new DriverMetrics(stats, false));
+        this.gradesCollection = client.getDatabase("sample_training").getCollection("grades");
+        this.readLatency = stats.latencyHistogram("read");
+        this.readFirstDoc = stats.latencyHistogram("readFirstDoc");
+        this.readDrain = stats.latencyHistogram("readDrain");
+        this.writeLatency = stats.latencyHistogram("write");
+        this.reads = stats.counter("reads");
+        this.writes = stats.counter("writes");
+        this.readFailures = stats.counter("readFailure");
+        this.writeFailures = stats.counter("writeFailure");
+        this.trace = OpTrace.fromSystemProperties();
+        System.out.println("Reactive engine with " + eventLoopThreads + " event loop threads");
+    }
+
+    private static MongoClient createClient(AsynchronousChannelGroup eventLoop, DriverMetrics driverMetrics) {
+        ConnectionPoolSettings settings = ConnectionPoolSettings.builder()
+            .maxConnectionIdleTime(30000, TimeUnit.MILLISECONDS)
+            .maxSize(Integer.getInteger(POOL_SIZE_PROPERTY, 500))
+            .maxWaitTime(60000, TimeUnit.MILLISECONDS)
+            .maxConnectionLifeTime(1800000, TimeUnit.MILLISECONDS)
+            .build();
+        ClusterSettings clusterSettings = ClusterSettings.builder()
+            .applyConnectionString(new ConnectionString(System.getProperty("mongodb.uri")))
+            .localThreshold(50, TimeUnit.MILLISECONDS)
+            .serverSelectionTimeout(30000, TimeUnit.MILLISECONDS)
+            .build();
+        MongoClientSettings.Builder builder = MongoClientSettings.builder()
+            .applyToConnectionPoolSettings(pool -> pool.applySettings(settings))
+            .applyToClusterSettings(cluster -> cluster.applySettings(clusterSettings))
+            .streamFactoryFactory(AsynchronousSocketChannelStreamFactoryFactory.builder().group(eventLoop).build());
+        MongoClientSettings clientSettings = driverMetrics.apply(builder).build();
+        return MongoClients.create(clientSettings);
+    }
+
+    /**
+     * Drives the load until the ramp down phase brings the target to zero, then waits for the
+     * operations in flight to complete.
+     */
+    public void run() throws IOException, InterruptedException {
+        int target;
+        while ((target = connectionTarget.getThreadCountTarget()) > 0) {
+            readTarget = (int) (target * READ_SHARE);
+            writeTarget = target - readTarget;
+            issueReads();
+            issueWrites();
+            stats.setThreadCount(inFlightReads.get(), true);
+            stats.setThreadCount(inFlightWrites.get(), false);
+            Thread.sleep(1);
+        }
+        System.out.println("Terminating...");
+        readTarget = 0;
+        writeTarget = 0;
+        while (inFlightReads.get() + inFlightWrites.get() > 0) {
+            stats.setThreadCount(inFlightReads.get(), true);
+            stats.setThreadCount(inFlightWrites.get(), false);
+            Thread.sleep(10);
+        }
+        client.close();
+        eventLoop.shutdownNow();
+        if (trace != null) {
+            trace.close();
+        }
+    }
+
+    /**
+     * Starts reads until the target is in flight. Called by the coordinator and from completion
+     * callbacks, so a finished read is replaced without waiting for it.
+     */
+    private void issueReads() {
+        issue(readIssuing, readTarget, this::maybeIssueRead);
+    }
+
+    private void issueWrites() {
+        issue(writeIssuing, writeTarget, this::maybeIssueWrite);
+    }
+
+    /**
+     * Calls {@code issueOne} until it starts nothing, at most {@code limit} times so that publishers failing
+     * at once don't keep the caller. A completion that runs during subscribe, on the thread already issuing,
+     * returns here at once and leaves its replacement to the loop further up the stack instead of recursing.
+     */
+    private static void issue(ThreadLocal<boolean[]> issuing, int limit, BooleanSupplier issueOne) {
+        boolean[] active = issuing.get();
+        if (active[0]) {
+            return;
+        }
+        active[0] = true;
+        try {
+            for (int i = 0; i < limit && issueOne.getAsBoolean(); ++i) {
+            }
+        } finally {
+            active[0] = false;
+        }
+    }
+
+    /**
+     * Starts one more read if fewer than the target are in flight.
+     */
+    private boolean maybeIssueRead() {
+        int current;
+        do {
+            current = inFlightReads.get();
+            if (current >= readTarget) {
+                return false;
+            }
+        } while (!inFlightReads.compareAndSet(current, current + 1));
+        long studentId = readKeyGenerator.get().nextKey();
+        long start = System.nanoTime();
+        readQuery.find(gradesCollection, studentId)
+            .subscribe(new LastItemSubscriber<Bson>(start, readFirstDoc, (doc, failure) -> {
+                long latency = System.nanoTime() - start;
+                if (trace != null) {
+                    trace.record(OpTrace.READ, start, studentId, readQuery.getRangeWidth(), latency,
+                        failure == null && doc != null);
+                }
+                // As in the thread engines: the drain once the cursor is exhausted, even empty, the read
+                // latency only for reads that found documents. Without a schedule both start at the find.
+                if (failure == null) {
+                    readDrain.recordNanos(latency);
+                }
+                if (failure == null && doc != null) {
+                    readLatency.recordNanos(latency);
+                    reads.increment();
+                } else {
+                    readFailures.increment();
+                }
+                inFlightReads.decrementAndGet();
+                issueReads();
+            }));
+        return true;
+    }
+
+    private boolean maybeIssueWrite() {
+        int current;
+        do {
+            current = inFlightWrites.get();
+            if (current >= writeTarget) {
+                return false;
+            }
+        } while (!inFlightWrites.compareAndSet(current, current + 1));
+        long studentId = writeKeyGenerator.get().nextKey();
+        long start = System.nanoTime();
+        gradesCollection.updateOne(eq("student_id", studentId), set("class_id", ThreadLocalRandom.current().nextInt(10)))
+            .subscribe(new LastItemSubscriber<UpdateResult>((result, failure) -> {
+                writeLatency.recordNanos(System.nanoTime() - start);
+                if (trace != null) {
+                    trace.record(OpTrace.WRITE, start, studentId, 0, System.nanoTime() - start, failure == null);
+                }
+                if (failure != null) {
+                    writeFailures.increment();
+                } else if (result != null && result.getModifiedCount() > 0) {
+                    writes.increment();
+                }
+                inFlightWrites.decrementAndGet();
+                issueWrites();
+            }));
+        return true;
+    }
+
+    /**
+     * Requests everything and reports the last item, or the failure, once the publisher completes.
+     */
+    static class LastItemSubscriber<T> implements Subscriber<T> {
+        private final BiConsumer<T, Throwable> onDone;
+        private final long start;
+        // Null when the time to the first item is not measured.
+        private final LatencyHistogram firstItemLatency;
+        private T last;
+
+        LastItemSubscriber(BiConsumer<T, Throwable> onDone) {
+            this(0, null, onDone);
+        }
+
+        /**
+         * @param start nano time the operation started at.
+         * @param firstItemLatency records the time from start to the first item.
+         */
+        LastItemSubscriber(long start, LatencyHistogram firstItemLatency, BiConsumer<T, Throwable> onDone) {
+            this.onDone = onDone;
+            this.start = start;
+            this.firstItemLatency = firstItemLatency;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            s.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (last == null && firstItemLatency != null) {
+                firstItemLatency.recordNanos(System.nanoTime() - start);
+            }
+            last = item;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            onDone.accept(null, t);
+        }
+
+        @Override
+        public void onComplete() {
+            onDone.accept(last, null);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.mongodb.ramp_up_dowm;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lte;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Projections;
+import com.mongodb.reactivestreams.client.FindPublisher;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+
+/**
+ * The range read of the read workers, shared by all of them. Options:
+ * <ul>
+ * <li>read.rangeWidth - a read returns the grades of student_id in [key, key + width], 0 reads a
+ * single student (default 50).</li>
+ * <li>read.batchSize - documents per cursor batch, the first one included (default 0, the server
+ * default of 101 documents or 16 MB).</li>
+ * <li>read.decode - document (default) decodes every grade into a {@link Document}, nested scores
+ * included; raw keeps the bytes of the reply as {@link RawBsonDocument}s, which are only parsed
+ * when a field is accessed, so client side decoding drops out of the measured latency.</li>
+ * <li>read.projection - comma separated fields returned by the server, e.g. {@code student_id,class_id}
+ * (default: whole documents).</li>
+ * <li>read.limit - maximal documents returned per read (default 0, no limit).</li>
+ * </ul>
+ */
+public class ReadQuery {
+    public static final String DECODE_PROPERTY = "read.decode";
+    public static final String PROJECTION_PROPERTY = "read.projection";
+    public static final String LIMIT_PROPERTY = "read.limit";
+    public static final String RANGE_WIDTH_PROPERTY = "read.rangeWidth";
+    public static final String BATCH_SIZE_PROPERTY = "read.batchSize";
+
+    enum Decode {
+        DOCUMENT, RAW
+    }
+
+    private final Decode decode;
+    private final String[] fields;
+    private final Bson projection;
+    private final int limit;
+    private final int rangeWidth;
+    private final int batchSize;
+
+    ReadQuery(Decode decode, String[] fields, int limit, int rangeWidth, int batchSize) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Read limit must not be negative: " + limit);
+        }
+        if (rangeWidth < 0) {
+            throw new IllegalArgumentException("Read range width must not be negative: " + rangeWidth);
+        }
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("Read batch size must not be negative: " + batchSize);
+        }
+        this.decode = decode;
+        this.fields = fields;
+        this.projection = fields.length == 0 ? null : Projections.include(fields);
+        this.limit = limit;
+        this.rangeWidth = rangeWidth;
+        this.batchSize = batchSize;
+    }
+
+    static ReadQuery fromSystemProperties() {
+        String decodeName = System.getProperty(DECODE_PROPERTY, "document");
+        Decode decode;
+        try {
+            decode = Decode.valueOf(decodeName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown " + DECODE_PROPERTY + ": " + decodeName);
+        }
+        String projection = System.getProperty(PROJECTION_PROPERTY, "").trim();
+        String[] fields = projection.isEmpty() ? new String[0] : projection.split("\\s*,\\s*");
+        return new ReadQuery(decode, fields, Integer.getInteger(LIMIT_PROPERTY, 0),
+            Integer.getInteger(RANGE_WIDTH_PROPERTY, 50), Integer.getInteger(BATCH_SIZE_PROPERTY, 0));
+    }
+
+    /**
+     * @return the grades with student_id in [studentId, studentId + width].
+     */
+    static Bson filter(long studentId, int width) {
+        return and(gte("student_id", studentId), lte("student_id", studentId + width));
+    }
+
+    /**
+     * @return the find of the sync driver, ready to iterate.
+     */
+    FindIterable<? extends Bson> find(MongoCollection<Document> collection, long studentId) {
+        FindIterable<? extends Bson> iterable = decode == Decode.RAW ?
+            collection.withDocumentClass(RawBsonDocument.class).find(filter(studentId, rangeWidth)) :
+            collection.find(filter(studentId, rangeWidth));
+        return iterable.projection(projection).limit(limit).batchSize(batchSize).maxTime(400, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the find of the reactive streams driver, ready to subscribe.
+     */
+    FindPublisher<? extends Bson> find(com.mongodb.reactivestreams.client.MongoCollection<Document> collection,
+            long studentId) {
+        FindPublisher<? extends Bson> publisher = decode == Decode.RAW ?
+            collection.withDocumentClass(RawBsonDocument.class).find(filter(studentId, rangeWidth)) :
+            collection.find(filter(studentId, rangeWidth));
+        return publisher.projection(projection).limit(limit).batchSize(batchSize).maxTime(400, TimeUnit.MILLISECONDS);
+    }
+
+    int getRangeWidth() {
+        return rangeWidth;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rangeWidth=%d batchSize=%s decode=%s projection=%s limit=%d", rangeWidth,
+            batchSize == 0 ? "default" : String.valueOf(batchSize), decode.name().toLowerCase(),
+            fields.length == 0 ? "none" : Arrays.toString(fields), limit);
+    }
+}
@@ -0,0 +1,378 @@
+// Run with:
+//   mvn compile exec:java -Dexec.mainClass="com.mongodb.ramp_up_dowm.ReportComparator" -Dexec.args="/tmp/baseline.txt /tmp/stresstest.txt"
+
+package com.mongodb.ramp_up_dowm;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.HdrHistogram.EncodableHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+
+/**
+ * Compares stress test reports phase by phase: {@code ReportComparator <baseline> <candidate>...}.
+ * Reports are text reports or {@code .ts} time series reports; their per second rows are split by the
+ * phase notes written by {@link Stats#setPhase}. For every phase found in both runs and every metric
+ * (-Dcompare.metrics, default throughput - reads plus writes per second - and the read and write p50 and
+ * p99), the per second values are compared with a Welch t test, with a 95% confidence interval of the
+ * change. Consecutive seconds are correlated, so each run counts for its effective sample size from the
+ * lag-1 autocorrelation of its values rather than for its number of seconds. When the {@code .hlog} histogram log of both runs is found next to the reports, the latency
+ * percentiles over the whole phase are printed as well.
+ * <p>
+ * A change is a regression when it is significant, in the bad direction and larger than
+ * -Dcompare.threshold (default 0.05, 5%) in a phase of -Dcompare.gatePhases (default STRESS,REPLAY;
+ * the ramps change concurrency every second, so their samples are informational). Exits with 1 if any
+ * candidate regressed, so upgrades can be gated on it.
+ */
+public class ReportComparator {
+    public static final String METRICS_PROPERTY = "compare.metrics";
+    public static final String THRESHOLD_PROPERTY = "compare.threshold";
+    public static final String GATE_PHASES_PROPERTY = "compare.gatePhases";
+    static final String THROUGHPUT = "throughput";
+
+    private static final Pattern PHASE_NOTE = Pattern.compile(Pattern.quote(PhaseSummary.PREFIX) + "(\\S+) started");
+
+    // Two sided 95% Student t critical values, indexed by degrees of freedom.
+    private static final double[] T_CRITICAL = {
+        Double.NaN, 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+        2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+        2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+
+    /**
+     * The per second rows of one report, by phase in order of appearance.
+     */
+    static class Run {
+        final String path;
+        final Map<String, List<Map<String, Long>>> phases = new LinkedHashMap<String, List<Map<String, Long>>>();
+        // Time of every row, to place the histogram log intervals.
+        final List<Long> rowMillis = new ArrayList<Long>();
+        final List<String> rowPhases = new ArrayList<String>();
+        // Latency histograms over each phase by operation type, empty without a histogram log.
+        final Map<String, Map<String, Histogram>> latencies = new LinkedHashMap<String, Map<String, Histogram>>();
+        private String phase = null;
+
+        Run(String path) {
+            this.path = path;
+        }
+
+        static Run load(String path) throws IOException {
+            Run run = new Run(path);
+            String hlog;
+            if (path.endsWith(".ts")) {
+                run.loadTimeSeries();
+                hlog = path.substring(0, path.length() - ".ts".length()) + ".hlog";
+            } else {
+                run.loadText();
+                hlog = path + ".hlog";
+            }
+            if (new File(hlog).exists()) {
+                run.loadHistogramLog(hlog);
+            }
+            return run;
+        }
+
+        private void note(String text) {
+            Matcher matcher = PHASE_NOTE.matcher(text);
+            if (matcher.lookingAt()) {
+                phase = matcher.group(1);
+            }
+        }
+
+        private void row(long millis, Map<String, Long> values) {
+            if (phase == null) {
+                // Client startup, before the first phase.
+                return;
+            }
+            Map<String, Long> row = new LinkedHashMap<String, Long>(values);
+            row.put(THROUGHPUT, row.getOrDefault("reads", 0L) + row.getOrDefault("writes", 0L));
+            phases.computeIfAbsent(phase, p -> new ArrayList<Map<String, Long>>()).add(row);
+            rowMillis.add(millis);
+            rowPhases.add(phase);
+        }
+
+        private void loadText() throws IOException {
+            try (BufferedReader in = new BufferedReader(new FileReader(path))) {
+                String[] columns = null;
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("# time ")) {
+                        columns = line.substring("# time ".length()).trim().split("\\s+");
+                    } else if (line.startsWith("# ")) {
+                        note(line.substring(2));
+                    } else if (!line.isEmpty() && columns != null) {
+                        String[] fields = line.split("\t");
+                        Map<String, Long> values = new LinkedHashMap<String, Long>();
+                        for (int i = 0; i < columns.length && i + 1 < fields.length; ++i) {
+                            values.put(columns[i], Long.parseLong(fields[i + 1]));
+                        }
+                        row(Instant.parse(fields[0]).toEpochMilli(), values);
+                    }
+                }
+            }
+        }
+
+        private void loadTimeSeries() throws IOException {
+            try (TimeSeriesReader reader = new TimeSeriesReader(path)) {
+                TimeSeriesReader.Record record;
+                while ((record = reader.next()) != null) {
+                    if (record.getNote() != null) {
+                        note(record.getNote());
+                    } else {
+                        row(record.getMillis(), record.getValues());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds every interval to the phase of the report row closest to the end of the interval.
+         */
+        private void loadHistogramLog(String hlog) throws IOException {
+            if (rowMillis.isEmpty()) {
+                return;
+            }
+            HistogramLogReader reader = new HistogramLogReader(hlog);
+            try {
+                EncodableHistogram encoded;
+                while ((encoded = reader.nextIntervalHistogram()) != null) {
+                    if (!(encoded instanceof Histogram) || encoded.getTag() == null) {
+                        continue;
+                    }
+                    Histogram interval = (Histogram) encoded;
+                    String rowPhase = rowPhases.get(closestRow(interval.getEndTimeStamp()));
+                    Map<String, Histogram> types = latencies.computeIfAbsent(rowPhase,
+                        p -> new LinkedHashMap<String, Histogram>());
+                    Histogram total = types.get(interval.getTag());
+                    if (total == null) {
+                        types.put(interval.getTag(), interval.copy());
+                    } else {
+                        total.add(interval);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        private int closestRow(long millis) {
+            int index = 0;
+            for (int i = 1; i < rowMillis.size(); ++i) {
+                if (Math.abs(rowMillis.get(i) - millis) < Math.abs(rowMillis.get(index) - millis)) {
+                    index = i;
+                }
+            }
+            return index;
+        }
+
+        /**
+         * @return the values of a metric in a phase, null if the report does not have it.
+         */
+        double[] values(String phase, String metric) {
+            List<Map<String, Long>> rows = phases.get(phase);
+            if (rows == null || rows.isEmpty() || !rows.get(0).containsKey(metric)) {
+                return null;
+            }
+            double[] values = new double[rows.size()];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = rows.get(i).getOrDefault(metric, 0L);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Welch's unequal variances t test of the difference of two means, on effective sample sizes.
+     */
+    static class Comparison {
+        final double baseMean;
+        final double candidateMean;
+        final double t;
+        final double lowDifference;
+        final double highDifference;
+        final boolean significant;
+
+        Comparison(double[] base, double[] candidate) {
+            baseMean = mean(base);
+            candidateMean = mean(candidate);
+            double baseSize = effectiveSize(base, baseMean);
+            double candidateSize = effectiveSize(candidate, candidateMean);
+            double baseVariance = variance(base, baseMean) / baseSize;
+            double candidateVariance = variance(candidate, candidateMean) / candidateSize;
+            double difference = candidateMean - baseMean;
+            double se = Math.sqrt(baseVariance + candidateVariance);
+            if (se == 0) {
+                t = difference == 0 ? 0 : Math.copySign(Double.POSITIVE_INFINITY, difference);
+                lowDifference = difference;
+                highDifference = difference;
+                significant = difference != 0;
+                return;
+            }
+            // Welch-Satterthwaite degrees of freedom.
+            double df = Math.pow(se, 4) / (baseVariance * baseVariance / Math.max(1, baseSize - 1) +
+                candidateVariance * candidateVariance / Math.max(1, candidateSize - 1));
+            double critical = tCritical(df);
+            t = difference / se;
+            lowDifference = difference - critical * se;
+            highDifference = difference + critical * se;
+            significant = Math.abs(t) > critical;
+        }
+
+        /**
+         * @return change relative to the baseline mean, NaN for a zero baseline.
+         */
+        double change(double difference) {
+            return baseMean == 0 ? Double.NaN : difference / baseMean;
+        }
+
+        private static double mean(double[] values) {
+            double sum = 0;
+            for (double value : values) {
+                sum += value;
+            }
+            return sum / values.length;
+        }
+
+        /**
+         * @return the count of independent values carrying the same information on the mean,
+         * n (1 - r) / (1 + r) for a lag-1 autocorrelation r. A negative r is taken as 0 and r is capped
+         * at 0.95, the estimate is rough on a short phase.
+         */
+        static double effectiveSize(double[] values, double mean) {
+            double c0 = 0;
+            double c1 = 0;
+            for (int i = 0; i < values.length; ++i) {
+                c0 += (values[i] - mean) * (values[i] - mean);
+                if (i > 0) {
+                    c1 += (values[i] - mean) * (values[i - 1] - mean);
+                }
+            }
+            double r = c0 == 0 ? 0 : Math.max(0, Math.min(c1 / c0, 0.95));
+            return values.length * (1 - r) / (1 + r);
+        }
+
+        private static double variance(double[] values, double mean) {
+            double sum = 0;
+            for (double value : values) {
+                sum += (value - mean) * (value - mean);
+            }
+            return sum / (values.length - 1);
+        }
+
+        /**
+         * @return the critical value for the degrees of freedom rounded down, so on the safe side.
+         */
+        private static double tCritical(double df) {
+            int rounded = (int) Math.floor(df);
+            if (rounded < 1) {
+                return T_CRITICAL[1];
+            }
+            if (rounded < T_CRITICAL.length) {
+                return T_CRITICAL[rounded];
+            }
+            return rounded < 40 ? 2.042 : rounded < 60 ? 2.021 : rounded < 120 ? 2.000 : 1.980;
+        }
+    }
+
+    private final List<String> metrics;
+    private final double threshold;
+    private final List<String> gatePhases;
+
+    ReportComparator(List<String> metrics, double threshold, List<String> gatePhases) {
+        this.metrics = metrics;
+        this.threshold = threshold;
+        this.gatePhases = gatePhases;
+    }
+
+    static ReportComparator fromSystemProperties() {
+        return new ReportComparator(
+            Arrays.asList(System.getProperty(METRICS_PROPERTY, "throughput,readP50Us,readP99Us,writeP50Us,writeP99Us")
+                .split("\\s*,\\s*")),
+            Double.parseDouble(System.getProperty(THRESHOLD_PROPERTY, "0.05")),
+            Arrays.asList(System.getProperty(GATE_PHASES_PROPERTY, "STRESS,REPLAY").split("\\s*,\\s*")));
+    }
+
+    /**
+     * Prints the comparison of a candidate with the baseline.
+     *
+     * @return count of regressions.
+     */
+    int compare(Run base, Run candidate) {
+        System.out.println("Baseline " + base.path + " vs candidate " + candidate.path);
+        int regressions = 0;
+        for (String phase : base.phases.keySet()) {
+            if (!candidate.phases.containsKey(phase)) {
+                System.out.println("  " + phase + ": not in the candidate");
+                continue;
+            }
+            boolean gated = gatePhases.contains(phase);
+            System.out.println(String.format("  %s: %d vs %d sec%s", phase, base.phases.get(phase).size(),
+                candidate.phases.get(phase).size(), gated ? "" : " (not gated)"));
+            for (String metric : metrics) {
+                double[] baseValues = base.values(phase, metric);
+                double[] candidateValues = candidate.values(phase, metric);
+                if (baseValues == null || candidateValues == null) {
+                    continue;
+                }
+                if (baseValues.length < 2 || candidateValues.length < 2) {
+                    System.out.println(String.format("    %-16s too few samples", metric));
+                    continue;
+                }
+                Comparison c = new Comparison(baseValues, candidateValues);
+                double change = c.change(c.candidateMean - c.baseMean);
+                // Throughput should go up, everything else (latencies) down.
+                boolean worse = THROUGHPUT.equals(metric) ? change < 0 : change > 0;
+                boolean regression = gated && c.significant && worse && Math.abs(change) > threshold;
+                if (regression) {
+                    ++regressions;
+                }
+                System.out.println(String.format("    %-16s %12.0f -> %12.0f  %+7.1f%% [95%% CI %+7.1f%%, %+7.1f%%]  t=%6.2f  %s",
+                    metric, c.baseMean, c.candidateMean, 100 * change, 100 * c.change(c.lowDifference),
+                    100 * c.change(c.highDifference), c.t,
+                    regression ? "REGRESSION" : c.significant ? (worse ? "worse" : "better") : "no significant change"));
+            }
+            Map<String, Histogram> baseLatencies = base.latencies.get(phase);
+            Map<String, Histogram> candidateLatencies = candidate.latencies.get(phase);
+            if (baseLatencies == null || candidateLatencies == null) {
+                continue;
+            }
+            for (String type : new String[]{ "read", "write" }) {
+                Histogram b = baseLatencies.get(type);
+                Histogram c = candidateLatencies.get(type);
+                if (b != null && c != null) {
+                    System.out.println(String.format("    %s us over the phase: p50 %d -> %d, p99 %d -> %d, p99.9 %d -> %d, max %d -> %d",
+                        type, b.getValueAtPercentile(50), c.getValueAtPercentile(50), b.getValueAtPercentile(99),
+                        c.getValueAtPercentile(99), b.getValueAtPercentile(99.9), c.getValueAtPercentile(99.9),
+                        b.getMaxValue(), c.getMaxValue()));
+                }
+            }
+        }
+        return regressions;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: ReportComparator <baseline report> <candidate report>...");
+            System.exit(2);
+        }
+        ReportComparator comparator = fromSystemProperties();
+        Run base = Run.load(args[0]);
+        int regressions = 0;
+        for (int i = 1; i < args.length; ++i) {
+            regressions += comparator.compare(base, Run.load(args[i]));
+        }
+        System.out.println(regressions == 0 ? "No regression" : regressions + " regression(s) past " +
+            100 * comparator.threshold + "%");
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+}
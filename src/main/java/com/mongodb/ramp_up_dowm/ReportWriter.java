@@ -0,0 +1,46 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Destination of the per second report values, selected with -Dreport.format:
+ * <ul>
+ * <li>text - tab separated columns, one line per second (default).</li>
+ * <li>binary - compact {@link TimeSeriesWriter} log of every value, converted to text by
+ * {@link TimeSeriesReader}.</li>
+ * </ul>
+ */
+public interface ReportWriter {
+    String FORMAT_PROPERTY = "report.format";
+
+    /**
+     * @param millis sample time.
+     * @param values every counter, gauge and thread count by name.
+     */
+    void append(long millis, Map<String, Long> values) throws IOException;
+
+    /**
+     * Adds a comment, e.g. a run summary.
+     */
+    void note(String text) throws IOException;
+
+    void close() throws IOException;
+
+    /**
+     * @param report report file name, the binary format adds a {@code .ts} suffix.
+     * @param columns columns of the text report.
+     */
+    static ReportWriter fromSystemProperties(String report, String[] columns) throws IOException {
+        String format = System.getProperty(FORMAT_PROPERTY, "text");
+        switch (format.toLowerCase()) {
+            case "text":
+                return new TextReportWriter(new FileWriter(report), columns);
+            case "binary":
+                return new TimeSeriesWriter(report + ".ts", columns, System.currentTimeMillis());
+            default:
+                throw new IllegalArgumentException("Unknown " + FORMAT_PROPERTY + ": " + format);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Finds the knee of the throughput curve while the concurrency ramps up.
+ * <p>
+ * Over a sliding window of the raw per second samples a least squares line is fitted against
+ * concurrency, and the system is considered saturated when adding concurrency no longer gives a
+ * statistically significant throughput gain (one sided t test on the slope) while latency grows
+ * significantly. The test needs independent samples, so it does not run on smoothed values, whose
+ * autocorrelation would overstate the significance. Throughput is smoothed with an exponentially
+ * weighted moving average only to find the saturation point, the concurrency where it peaked. The knee
+ * must show in {@link #CONFIRMATIONS} windows in a row.
+ */
+public class SaturationDetector {
+    static final int WINDOW = 10;
+    static final double SMOOTHING = 0.3;
+    // Consecutive windows that must show the knee, the raw samples are noisier than smoothed ones.
+    static final int CONFIRMATIONS = 2;
+
+    // One sided 95% Student t critical values, indexed by degrees of freedom.
+    private static final double[] T_CRITICAL = {
+        Double.NaN, 6.314, 2.920, 2.353, 2.132, 2.015, 1.943, 1.895, 1.860, 1.833, 1.812,
+        1.796, 1.782, 1.771, 1.761, 1.753, 1.746, 1.740, 1.734, 1.729, 1.725 };
+
+    private final Deque<double[]> window = new ArrayDeque<double[]>();
+    private double smoothedThroughput = Double.NaN;
+    private double peakThroughput = 0;
+    private int peakConcurrency = 0;
+    private double throughputT = Double.NaN;
+    private double latencyT = Double.NaN;
+    // Windows in a row that showed the knee.
+    private int consecutive = 0;
+
+    /**
+     * Adds a sample taken at the given concurrency.
+     *
+     * @param throughput operations per second.
+     * @param latency latency of the same interval, in any unit.
+     * @return true if the knee was detected.
+     */
+    boolean addSample(int concurrency, double throughput, double latency) {
+        smoothedThroughput = Double.isNaN(smoothedThroughput) ? throughput :
+            SMOOTHING * throughput + (1 - SMOOTHING) * smoothedThroughput;
+        if (smoothedThroughput > peakThroughput) {
+            peakThroughput = smoothedThroughput;
+            peakConcurrency = concurrency;
+        }
+        window.addLast(new double[]{ concurrency, throughput, latency });
+        if (window.size() > WINDOW) {
+            window.removeFirst();
+        }
+        if (window.size() < WINDOW) {
+            return false;
+        }
+        throughputT = slopeT(1);
+        latencyT = slopeT(2);
+        double critical = T_CRITICAL[Math.min(WINDOW - 2, T_CRITICAL.length - 1)];
+        boolean noThroughputGain = !(throughputT > critical);
+        boolean latencyGrows = latencyT > critical;
+        consecutive = noThroughputGain && latencyGrows ? consecutive + 1 : 0;
+        return consecutive >= CONFIRMATIONS;
+    }
+
+    /**
+     * @return concurrency at which the smoothed throughput peaked so far.
+     */
+    int getPeakConcurrency() {
+        return peakConcurrency;
+    }
+
+    String describe() {
+        return String.format("peak %.0f ops/sec at concurrency %d, throughput slope t=%.2f, latency slope t=%.2f",
+            peakThroughput, peakConcurrency, throughputT, latencyT);
+    }
+
+    /**
+     * Fits {@code y = a + b * concurrency} over the window.
+     *
+     * @return t statistic of the slope b, positive infinity for a perfect positive fit.
+     */
+    private double slopeT(int column) {
+        int n = window.size();
+        double meanX = 0;
+        double meanY = 0;
+        for (double[] s : window) {
+            meanX += s[0];
+            meanY += s[column];
+        }
+        meanX /= n;
+        meanY /= n;
+        double sxx = 0;
+        double sxy = 0;
+        for (double[] s : window) {
+            sxx += (s[0] - meanX) * (s[0] - meanX);
+            sxy += (s[0] - meanX) * (s[column] - meanY);
+        }
+        if (sxx == 0) {
+            return 0;  // Concurrency did not change, no evidence either way.
+        }
+        double slope = sxy / sxx;
+        double intercept = meanY - slope * meanX;
+        double sse = 0;
+        for (double[] s : window) {
+            double residual = s[column] - (intercept + slope * s[0]);
+            sse += residual * residual;
+        }
+        double standardError = Math.sqrt(sse / (n - 2) / sxx);
+        if (standardError == 0) {
+            return slope == 0 ? 0 : Math.copySign(Double.POSITIVE_INFINITY, slope);
+        }
+        return slope / standardError;
+    }
+}
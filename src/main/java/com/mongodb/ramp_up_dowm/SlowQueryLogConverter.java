@@ -0,0 +1,175 @@
+// Run with:
+//   mvn compile exec:java -Dexec.mainClass="com.mongodb.ramp_up_dowm.SlowQueryLogConverter" -Dexec.args="/var/log/mongodb/mongod.log /tmp/trace.bin"
+
+package com.mongodb.ramp_up_dowm;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+
+/**
+ * Converts the "Slow query" entries of a mongod structured (JSON, 4.4+) log into an {@link OpTrace}
+ * for {@link TraceReplay}. Finds on student_id become range reads, updates by student_id become
+ * writes; other entries are skipped. The student_id bounds may be split over {@code $and} clauses,
+ * as in the generator's own range reads. The start of an operation is its log time minus its duration.
+ * Only the namespace in -Dconvert.ns (default sample_training.grades) is converted.
+ * <p>
+ * A slow query log only holds the operations over the slowms threshold, so the replay reproduces the
+ * slow part of the incident, not the full load.
+ */
+public class SlowQueryLogConverter {
+    public static final String NS_PROPERTY = "convert.ns";
+    static final int SLOW_QUERY_ID = 51803;
+
+    private final String ns = System.getProperty(NS_PROPERTY, "sample_training.grades");
+
+    /**
+     * Writes the operations of the log to a trace starting with the earliest of them. Waits for the trace
+     * writer rather than dropping operations.
+     */
+    void convert(String logPath, String tracePath) throws IOException, InterruptedException {
+        List<OpTrace.Op> ops = new ArrayList<OpTrace.Op>();
+        long skipped = 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(logPath))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                OpTrace.Op op = parse(line);
+                if (op == null) {
+                    ++skipped;
+                } else {
+                    ops.add(op);
+                }
+            }
+        }
+        long firstMicros = Long.MAX_VALUE;
+        for (OpTrace.Op op : ops) {
+            firstMicros = Math.min(firstMicros, op.startMicros);
+        }
+        try (OpTrace trace = new OpTrace(tracePath, ops.isEmpty() ? 0 : firstMicros / 1000)) {
+            for (OpTrace.Op op : ops) {
+                trace.put(new OpTrace.Op(op.type, op.startMicros - firstMicros, op.key, op.width,
+                    op.latencyMicros, op.ok));
+            }
+        }
+        System.out.println("Converted " + ops.size() + " operations, skipped " + skipped + " log lines");
+    }
+
+    /**
+     * @return the operation of a slow query log line, started at its wall clock time in microseconds,
+     * null for other lines.
+     */
+    OpTrace.Op parse(String line) {
+        Document entry;
+        try {
+            entry = Document.parse(line);
+        } catch (JsonParseException e) {
+            return null;
+        }
+        if (!(entry.get("attr") instanceof Document) || !(entry.get("t") instanceof Date)) {
+            return null;
+        }
+        Document attr = entry.get("attr", Document.class);
+        if (entry.getInteger("id", 0) != SLOW_QUERY_ID || !ns.equals(attr.getString("ns"))) {
+            return null;
+        }
+        Document command = attr.get("command", Document.class);
+        if (command == null) {
+            return null;
+        }
+        byte type;
+        Document filter;
+        if (command.containsKey("find")) {
+            type = OpTrace.READ;
+            filter = command.get("filter", Document.class);
+        } else if (command.containsKey("updates")) {
+            // Command level entry of an update batch, replayed as its first update.
+            List<Document> updates = command.getList("updates", Document.class);
+            type = OpTrace.WRITE;
+            filter = updates.isEmpty() ? null : updates.get(0).get("q", Document.class);
+        } else if ("update".equals(attr.getString("type"))) {
+            // Operation level entry of a single update.
+            type = OpTrace.WRITE;
+            filter = command.get("q", Document.class);
+        } else {
+            return null;
+        }
+        if (filter == null) {
+            return null;
+        }
+        // Bounds of student_id over the filter and its $and clauses, as sent by ReadQuery.filter.
+        List<Document> clauses = new ArrayList<Document>();
+        clauses.add(filter);
+        if (filter.get("$and") instanceof List) {
+            for (Object clause : filter.getList("$and", Object.class)) {
+                if (clause instanceof Document) {
+                    clauses.add((Document) clause);
+                }
+            }
+        }
+        Long low = null;
+        Long high = null;
+        for (Document clause : clauses) {
+            Object studentId = clause.get("student_id");
+            if (studentId instanceof Number) {
+                low = max(low, ((Number) studentId).longValue());
+                high = min(high, ((Number) studentId).longValue());
+            } else if (studentId instanceof Document) {
+                Document range = (Document) studentId;
+                low = max(low, bound(range, "$gte", 0));
+                low = max(low, bound(range, "$gt", 1));
+                high = min(high, bound(range, "$lte", 0));
+                high = min(high, bound(range, "$lt", -1));
+            }
+        }
+        if (low == null) {
+            return null;
+        }
+        long key = low;
+        long width = high == null ? 0 : Math.max(0, high - low);
+        Date time = entry.get("t", Date.class);
+        long durationMillis = attr.get("durationMillis", Number.class) == null ? 0 :
+            attr.get("durationMillis", Number.class).longValue();
+        boolean ok = !attr.containsKey("errCode") && !attr.containsKey("errMsg");
+        return new OpTrace.Op(type, (time.getTime() - durationMillis) * 1000, key, (int) width,
+            durationMillis * 1000, ok);
+    }
+
+    /**
+     * @return the larger bound, null if both are missing.
+     */
+    private static Long max(Long a, Long b) {
+        if (a == null || b == null) {
+            return a == null ? b : a;
+        }
+        return Math.max(a, b);
+    }
+
+    /**
+     * @return the smaller bound, null if both are missing.
+     */
+    private static Long min(Long a, Long b) {
+        if (a == null || b == null) {
+            return a == null ? b : a;
+        }
+        return Math.min(a, b);
+    }
+
+    private static Long bound(Document range, String operator, int adjust) {
+        Object value = range.get(operator);
+        return value instanceof Number ? ((Number) value).longValue() + adjust : null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: SlowQueryLogConverter <mongod log> <trace>");
+            return;
+        }
+        new SlowQueryLogConverter().convert(args[0], args[1]);
+    }
+}
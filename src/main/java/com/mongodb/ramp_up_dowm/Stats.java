@@ -1,101 +1,351 @@
 package com.mongodb.ramp_up_dowm;
 
-import java.io.FileWriter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
 
 public class Stats {
     public final static String READ_THREADS_KEY = "readThreads";
     public final static String WRITE_THREADS_KEY = "writeThreads";
 
+    /**
+     * Receives every per second sample, e.g. to stream it to a {@link LoadCoordinator}.
+     */
+    public interface Listener {
+        /**
+         * Called on the reporter thread. The histograms are only valid during the call.
+         */
+        void onSample(long millis, Map<String, Long> values, Map<String, Histogram> intervals);
+    }
+
+    // Guards reporting state. Counters and histograms live in the registry and are never
+    // updated under this lock. Formatting and report I/O happen on the reporter thread, outside of it.
     private final ReentrantLock lock = new ReentrantLock();
-    private Map<String, FrequencyCounter> stats = new HashMap<String, FrequencyCounter>();
-    private ZonedDateTime lastLogTime = ZonedDateTime.now( ZoneOffset.UTC );
-    private int currentReadThreads = 0;
-    private int currentWriteThreads = 0;
-    private FileWriter report;
-    private String[] columns;
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private Map<String, Long> gauges = new HashMap<String, Long>();
+    private final Map<String, LongSupplier> gaugeSuppliers = new HashMap<String, LongSupplier>();
+    private volatile int currentReadThreads = 0;
+    private volatile int currentWriteThreads = 0;
+    private final ReportWriter report;
+    private final String reportName;
+    private final HistogramLogWriter histogramLog;
+    private final ScheduledExecutorService reporter;
+    private volatile GeneratorFootprint footprint;
+    private volatile GeneratorMonitor monitor;
+    private volatile Listener listener;
+    // Only used by the reporter thread, until close().
+    private final PhaseSummary phases = new PhaseSummary();
 
     public Stats(String report, String[] columns) throws IOException {
-        this.report = new FileWriter(report);
-        this.columns = columns;
-        StringBuffer b = new StringBuffer();
-        b.append("# ").append("time ");
-        for (String col : columns) {
-            b.append(col).append(" ");
+        this(report, columns, true);
+    }
+
+    /**
+     * @param sampling false when every second is sampled elsewhere and passed to {@link #addSample}.
+     */
+    Stats(String report, String[] columns, boolean sampling) throws IOException {
+        this.report = ReportWriter.fromSystemProperties(report, columns);
+        this.reportName = report;
+        this.histogramLog = new HistogramLogWriter(report + ".hlog");
+        this.histogramLog.outputLogFormatVersion();
+        this.histogramLog.outputStartTime(System.currentTimeMillis());
+        this.histogramLog.setBaseTime(System.currentTimeMillis());
+        this.histogramLog.outputLegend();
+        this.reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stats-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        if (sampling) {
+            this.reporter.scheduleAtFixedRate(this::report, 1, 1, TimeUnit.SECONDS);
         }
-        b.append("\n");
-        this.report.write(b.toString());
     }
 
+    /**
+     * Counts one event by name. Prefer keeping the handle returned by {@link #counter(String)}
+     * on hot paths, this variant pays for a map lookup on every call.
+     */
     public void registerEvent(String type) {
+        registry.counter(type).increment();
+    }
+
+    /**
+     * @return the events per second counter handle for the given name, created on first use.
+     */
+    public EventCounter counter(String type) {
+        return registry.counter(type);
+    }
+
+    /**
+     * Returns the latency histogram for the operation type, creating it on first use.
+     * Callers should keep the returned handle, recording into it does not take any lock.
+     * Each interval is reported as {@code <type>P50Us}, {@code <type>P99Us}, {@code <type>P999Us}
+     * and {@code <type>MaxUs} columns and logged to the {@code .hlog} file next to the report.
+     */
+    public LatencyHistogram latencyHistogram(String type) {
+        return registry.latencyHistogram(type);
+    }
+
+    public void setGauge(String key, long value) {
         lock.lock();
         try {
-            FrequencyCounter counter = stats.getOrDefault(type, null);
-            if (counter == null) {
-                counter = new FrequencyCounter(1, TimeUnit.SECONDS);
-                stats.put(type, counter);
-            }
-            counter.increment();
+            gauges.put(key, value);
         } finally {
             lock.unlock();
         }
     }
 
-    public void setThreadCount(int count, boolean readType) {
+    /**
+     * Adds a gauge whose value is read from {@code supplier} once per second, by the reporter thread.
+     */
+    public void registerGauge(String key, LongSupplier supplier) {
         lock.lock();
         try {
-            if (readType) {
-                currentReadThreads = count;
-            } else {
-                currentWriteThreads = count;
-            }
+            gaugeSuppliers.put(key, supplier);
         } finally {
             lock.unlock();
         }
     }
 
-    public void logStatsIfNeeded() throws IOException {
-        StringBuffer sb = new StringBuffer();
-        ZonedDateTime now;
+    public void setFootprint(GeneratorFootprint footprint) {
+        this.footprint = footprint;
+    }
+
+    /**
+     * Adds the generator health columns to the report, closed with this.
+     */
+    public void setMonitor(GeneratorMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setThreadCount(int count, boolean readType) {
+        if (readType) {
+            currentReadThreads = count;
+        } else {
+            currentWriteThreads = count;
+        }
+    }
+
+    /**
+     * Runs once per second on the reporter thread: samples the counters and histograms under the
+     * lock, then does all the formatting and I/O outside of it.
+     */
+    private void report() {
+        try {
+            long millis = System.currentTimeMillis();
+            GeneratorFootprint footprint = this.footprint;
+            GeneratorMonitor monitor = this.monitor;
+            String warning = null;
+            Map<String, Long> values = new LinkedHashMap<String, Long>();
+            Map<String, Histogram> intervals = new LinkedHashMap<String, Histogram>();
+            StringBuilder sb = new StringBuilder();
+            lock.lock();
+            try {
+                sb.append(ZonedDateTime.now( ZoneOffset.UTC )).append(">   ");
+                values.put(READ_THREADS_KEY, (long) currentReadThreads);
+                values.put(WRITE_THREADS_KEY, (long) currentWriteThreads);
+                for (EventCounter counter : registry.getCounters()) {
+                    int count = counter.getCount();
+                    values.put(counter.getName(), (long) count);
+                    sb.append(counter.getName()).append(": ");
+                    sb.append(count).append(" events per second\n");
+                }
+                sb.append("Current read threads: ").append(currentReadThreads).append("\n");
+                sb.append("Current write threads: ").append(currentWriteThreads);
+                for (LatencyHistogram latency : registry.getLatencyHistograms()) {
+                    Histogram h = latency.sampleInterval();
+                    String type = latency.getType();
+                    gauges.put(type + "P50Us", h.getValueAtPercentile(50));
+                    gauges.put(type + "P99Us", h.getValueAtPercentile(99));
+                    gauges.put(type + "P999Us", h.getValueAtPercentile(99.9));
+                    gauges.put(type + "MaxUs", h.getMaxValue());
+                    sb.append("\n").append(type).append(" latency us: p50 ").append(h.getValueAtPercentile(50))
+                        .append(" p99 ").append(h.getValueAtPercentile(99))
+                        .append(" p99.9 ").append(h.getValueAtPercentile(99.9))
+                        .append(" max ").append(h.getMaxValue())
+                        .append(" count ").append(h.getTotalCount());
+                    intervals.put(type, h);
+                }
+                for (Map.Entry<String, LongSupplier> entry : gaugeSuppliers.entrySet()) {
+                    gauges.put(entry.getKey(), entry.getValue().getAsLong());
+                }
+                for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+                    values.put(entry.getKey(), entry.getValue());
+                    if (entry.getKey().endsWith("Backlog")) {
+                        sb.append("\n").append(entry.getKey()).append(": ").append(entry.getValue());
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (footprint != null) {
+                footprint.sample(currentReadThreads + currentWriteThreads,
+                    values.getOrDefault("reads", 0L) + values.getOrDefault("writes", 0L));
+                values.put(GeneratorFootprint.CPU_PER_CLIENT_KEY, footprint.getCpuUsPerClient());
+                values.put(GeneratorFootprint.RSS_PER_CLIENT_KEY, footprint.getRssKbPerClient());
+                values.put(GeneratorFootprint.CPU_PER_OP_KEY, footprint.getCpuNsPerOp());
+                sb.append("\nGenerator CPU us/sec per client: ").append(footprint.getCpuUsPerClient());
+                sb.append("\nGenerator RSS KB per client: ").append(footprint.getRssKbPerClient());
+                sb.append("\nGenerator CPU ns per op: ").append(footprint.getCpuNsPerOp());
+            }
+            if (monitor != null) {
+                warning = monitor.sample(values);
+                sb.append("\nGenerator CPU %: ").append(values.get(GeneratorMonitor.CPU_PCT_KEY))
+                    .append(", alloc MB/sec: ").append(values.get(GeneratorMonitor.ALLOC_KEY))
+                    .append(", GC pause ms/sec: ").append(values.get(GeneratorMonitor.GC_PAUSE_KEY))
+                    .append(", live threads: ").append(values.get(GeneratorMonitor.THREADS_KEY));
+                if (warning != null) {
+                    sb.append("\n").append(warning);
+                }
+            }
+            Listener listener = this.listener;
+            if (listener != null) {
+                listener.onSample(millis, values, intervals);
+            }
+            System.out.println(sb.toString());
+            for (Histogram h : intervals.values()) {
+                histogramLog.outputIntervalHistogram(h);
+            }
+            phases.add(millis, values, intervals);
+            report.append(millis, values);
+            if (warning != null) {
+                report.note(warning);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Keep reporting, an exception would cancel the schedule.
+            System.out.println("Report failure: " + e);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reports one second sampled elsewhere, the merged agent samples of a distributed run. The values
+     * are visible to {@link #getValue} on return, the report is written by the reporter thread.
+     *
+     * @param intervals latency histograms of the second by type, owned by this from now on.
+     * @param description console line for the second.
+     */
+    void addSample(long millis, Map<String, Long> values, Map<String, Histogram> intervals, String description) {
         lock.lock();
         try {
-            now = ZonedDateTime.now( ZoneOffset.UTC );
-            if (ChronoUnit.MILLIS.between(lastLogTime, now) < 1000) {
-                return;  // Too early
-            }
-            lastLogTime = now;
-            sb.append(now).append(">   ");
-            for (Map.Entry<String, FrequencyCounter> entry : stats.entrySet()) {
-                sb.append(entry.getKey()).append(": ");
-                sb.append(entry.getValue().getCount()).append(" events per second\n");
-            }
-            sb.append("Current read threads: ").append(currentReadThreads).append("\n");
-            sb.append("Current write threads: ").append(currentWriteThreads);
+            gauges.putAll(values);
+            currentReadThreads = values.getOrDefault(READ_THREADS_KEY, 0L).intValue();
+            currentWriteThreads = values.getOrDefault(WRITE_THREADS_KEY, 0L).intValue();
+            for (Map.Entry<String, Histogram> entry : intervals.entrySet()) {
+                registry.latencyHistogram(entry.getKey()).addInterval(entry.getValue());
+            }
         } finally {
             lock.unlock();
         }
-        System.out.println(sb.toString());
+        reporter.execute(() -> {
+            try {
+                System.out.println(description);
+                for (Histogram h : intervals.values()) {
+                    histogramLog.outputIntervalHistogram(h);
+                }
+                phases.add(millis, values, intervals);
+                report.append(millis, values);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Report failure: " + e);
+                e.printStackTrace();
+            }
+        });
+    }
 
-        // File report is using fixed columns.
-        StringBuffer b = new StringBuffer();
-        b.append(now.format( DateTimeFormatter.ISO_INSTANT )).append("\t");
-        for (String col : columns) {
-            b.append(getValue(col)).append("\t");
-        }
-        b.append("\n");
-        report.write(b.toString());
+    /**
+     * Adds a comment line to the report, written in order with the samples by the reporter thread.
+     */
+    public void note(String text) {
+        reporter.execute(() -> {
+            try {
+                report.note(text);
+            } catch (IOException e) {
+                System.out.println("Report failure: " + e);
+            }
+        });
+    }
+
+    /**
+     * Starts a test phase: notes it in the report, and counts the following seconds towards it in the
+     * phase summary written by {@link #close()}.
+     *
+     * @param concurrency thread (or in flight) target the phase starts with.
+     */
+    public void setPhase(String phase, int concurrency) {
+        long millis = System.currentTimeMillis();
+        String text = PhaseSummary.PREFIX + phase + " started at concurrency " + concurrency;
+        reporter.execute(() -> {
+            phases.start(phase, concurrency, millis);
+            try {
+                report.note(text);
+            } catch (IOException e) {
+                System.out.println("Report failure: " + e);
+            }
+        });
     }
 
-    public void close() throws IOException {
+    /**
+     * Stops the reporter thread and writes the run summaries.
+     */
+    public void close() throws IOException, InterruptedException {
+        reporter.shutdown();
+        reporter.awaitTermination(10, TimeUnit.SECONDS);
+        if (footprint != null) {
+            System.out.println(footprint.summary());
+            report.note(footprint.summary());
+        }
+        if (monitor != null) {
+            monitor.close();
+            System.out.println(monitor.summary());
+            report.note(monitor.summary());
+        }
+        for (String line : phases.describe()) {
+            System.out.println(line);
+            report.note(line);
+        }
+        phases.write(reportName + ".phases.tsv");
         report.close();
+        histogramLog.close();
+        writeFullRunHistograms();
+    }
+
+    /**
+     * Prints the percentile distribution of the whole run for every operation type and
+     * saves it to {@code <report>.<type>.hgrm}.
+     */
+    private void writeFullRunHistograms() throws FileNotFoundException {
+        lock.lock();
+        try {
+            for (LatencyHistogram latency : registry.getLatencyHistograms()) {
+                latency.sampleInterval();
+                Histogram total = latency.getTotal();
+                System.out.println(String.format("Full run %s latency us: p50 %d p99 %d p99.9 %d max %d count %d",
+                    latency.getType(), total.getValueAtPercentile(50), total.getValueAtPercentile(99),
+                    total.getValueAtPercentile(99.9), total.getMaxValue(), total.getTotalCount()));
+                try (PrintStream out = new PrintStream(reportName + "." + latency.getType() + ".hgrm")) {
+                    total.outputPercentileDistribution(out, 1.0);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     int getValue(String key) {
@@ -107,9 +357,18 @@ public class Stats {
             if (key.equals(WRITE_THREADS_KEY)) {
                 return currentWriteThreads;
             }
-            return stats.get(key).getCount();
-        } catch (NullPointerException e) {
-            return 0;
+            Long gauge = gauges.get(key);
+            if (gauge != null) {
+                return gauge.intValue();
+            }
+            if (footprint != null && key.equals(GeneratorFootprint.CPU_PER_CLIENT_KEY)) {
+                return (int) footprint.getCpuUsPerClient();
+            }
+            if (footprint != null && key.equals(GeneratorFootprint.RSS_PER_CLIENT_KEY)) {
+                return (int) footprint.getRssKbPerClient();
+            }
+            EventCounter counter = registry.findCounter(key);
+            return counter == null ? 0 : counter.getCount();
         } finally {
             lock.unlock();
         }
@@ -0,0 +1,53 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+
+/**
+ * Tab separated report with fixed columns, a line per second. Values missing from a sample are
+ * reported as 0.
+ */
+public class TextReportWriter implements ReportWriter {
+    private final BufferedWriter out;
+    private final String[] columns;
+
+    public TextReportWriter(Writer out, String[] columns) throws IOException {
+        this.out = new BufferedWriter(out);
+        this.columns = columns;
+        StringBuilder b = new StringBuilder();
+        b.append("# ").append("time ");
+        for (String col : columns) {
+            b.append(col).append(" ");
+        }
+        b.append("\n");
+        this.out.write(b.toString());
+    }
+
+    @Override
+    public void append(long millis, Map<String, Long> values) throws IOException {
+        StringBuilder b = new StringBuilder();
+        b.append(DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(millis))).append("\t");
+        for (String col : columns) {
+            Long value = values.get(col);
+            b.append(value == null ? 0 : value.intValue()).append("\t");
+        }
+        b.append("\n");
+        out.write(b.toString());
+        out.flush();
+    }
+
+    @Override
+    public void note(String text) throws IOException {
+        out.write("# " + text + "\n");
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
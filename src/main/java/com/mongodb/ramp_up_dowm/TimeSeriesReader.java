@@ -0,0 +1,166 @@
+// Run with:
+//   mvn compile exec:java -Dexec.mainClass="com.mongodb.ramp_up_dowm.TimeSeriesReader" -Dexec.args="/tmp/stresstest.txt.ts /tmp/stresstest.txt"
+
+package com.mongodb.ramp_up_dowm;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a {@link TimeSeriesWriter} log back. Run as a program to convert one to the tab separated
+ * text report: {@code TimeSeriesReader <report>.ts [text report, default stdout]}.
+ */
+public class TimeSeriesReader implements Closeable {
+    private final DataInputStream in;
+    private final long startMillis;
+    private final String[] columns;
+    private final List<String> names = new ArrayList<String>();
+    private final Map<String, Long> values = new LinkedHashMap<String, Long>();
+    private long millis;
+
+    /**
+     * A sample, or a note when {@link #getNote()} is not null.
+     */
+    public static class Record {
+        private final long millis;
+        private final Map<String, Long> values;
+        private final String note;
+
+        Record(long millis, Map<String, Long> values, String note) {
+            this.millis = millis;
+            this.values = values;
+            this.note = note;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * @return every series known at this time, by name.
+         */
+        public Map<String, Long> getValues() {
+            return values;
+        }
+
+        public String getNote() {
+            return note;
+        }
+    }
+
+    public TimeSeriesReader(String path) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 64 * 1024));
+        if (in.readInt() != TimeSeriesWriter.MAGIC) {
+            in.close();
+            throw new IOException("Not a time series report: " + path);
+        }
+        startMillis = in.readLong();
+        millis = startMillis;
+        columns = new String[(int) readVarLong()];
+        for (int i = 0; i < columns.length; ++i) {
+            columns[i] = in.readUTF();
+        }
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return the columns of the text report.
+     */
+    public String[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the next sample or note, null at the end of the log.
+     */
+    public Record next() throws IOException {
+        while (true) {
+            int tag;
+            try {
+                tag = in.readByte();
+            } catch (EOFException e) {
+                return null;
+            }
+            try {
+                switch (tag) {
+                    case TimeSeriesWriter.DEFINE:
+                        readVarLong();
+                        String name = in.readUTF();
+                        names.add(name);
+                        values.put(name, 0L);
+                        break;
+                    case TimeSeriesWriter.SAMPLE:
+                        millis += unzigzag(readVarLong());
+                        long changed = readVarLong();
+                        for (long i = 0; i < changed; ++i) {
+                            String series = names.get((int) readVarLong());
+                            values.put(series, values.get(series) + unzigzag(readVarLong()));
+                        }
+                        return new Record(millis, Collections.unmodifiableMap(new LinkedHashMap<String, Long>(values)),
+                            null);
+                    case TimeSeriesWriter.NOTE:
+                        return new Record(millis, Collections.emptyMap(), in.readUTF());
+                    default:
+                        throw new IOException("Corrupt time series report, unknown record " + tag);
+                }
+            } catch (EOFException e) {
+                // The run was killed while writing the last record.
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: TimeSeriesReader <report>.ts [text report]");
+            return;
+        }
+        try (TimeSeriesReader reader = new TimeSeriesReader(args[0])) {
+            ReportWriter text = new TextReportWriter(args.length > 1 ? new FileWriter(args[1]) :
+                new OutputStreamWriter(System.out), reader.getColumns());
+            Record record;
+            while ((record = reader.next()) != null) {
+                if (record.getNote() != null) {
+                    text.note(record.getNote());
+                } else {
+                    text.append(record.getMillis(), record.getValues());
+                }
+            }
+            text.close();
+        }
+    }
+}
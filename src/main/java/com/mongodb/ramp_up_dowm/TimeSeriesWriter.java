@@ -0,0 +1,118 @@
+package com.mongodb.ramp_up_dowm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append only binary log of the per second report values, read back by {@link TimeSeriesReader}.
+ * <p>
+ * Layout: a header with the magic number, the start time and the report columns, then records
+ * tagged with a single byte:
+ * <ul>
+ * <li>{@code D} defines a series: id and name, written the first time a name shows up.</li>
+ * <li>{@code S} a sample: time since the previous sample in ms, then the id and the change since
+ * the previous sample of every series whose value changed. Numbers are zigzag varints, so a
+ * steady value costs nothing and a typical sample is a few dozen bytes.</li>
+ * <li>{@code N} a note, reported as a comment line.</li>
+ * </ul>
+ * Not thread safe, {@link Stats} only writes it from its reporter thread.
+ */
+public class TimeSeriesWriter implements ReportWriter {
+    static final int MAGIC = 0x53545331; // STS1
+    static final byte DEFINE = 'D';
+    static final byte SAMPLE = 'S';
+    static final byte NOTE = 'N';
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private long[] lastValues = new long[16];
+    private long lastMillis;
+
+    public TimeSeriesWriter(String path, String[] columns, long startMillis) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeLong(startMillis);
+        writeVarLong(columns.length);
+        for (String column : columns) {
+            out.writeUTF(column);
+        }
+        lastMillis = startMillis;
+    }
+
+    /**
+     * Appends a sample and flushes it, so a killed run loses at most the current second.
+     */
+    @Override
+    public void append(long millis, Map<String, Long> values) throws IOException {
+        int changed = 0;
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            int id = idOf(entry.getKey());
+            if (lastValues[id] != entry.getValue()) {
+                ++changed;
+            }
+        }
+        out.writeByte(SAMPLE);
+        writeVarLong(zigzag(millis - lastMillis));
+        writeVarLong(changed);
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            int id = ids.get(entry.getKey());
+            long value = entry.getValue();
+            if (lastValues[id] != value) {
+                writeVarLong(id);
+                writeVarLong(zigzag(value - lastValues[id]));
+                lastValues[id] = value;
+            }
+        }
+        lastMillis = millis;
+        out.flush();
+    }
+
+    @Override
+    public void note(String text) throws IOException {
+        out.writeByte(NOTE);
+        out.writeUTF(text);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * @return the id of the series, defining it first if new.
+     */
+    private int idOf(String name) throws IOException {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        int newId = ids.size();
+        ids.put(name, newId);
+        if (newId == lastValues.length) {
+            long[] grown = new long[lastValues.length * 2];
+            System.arraycopy(lastValues, 0, grown, 0, lastValues.length);
+            lastValues = grown;
+        }
+        out.writeByte(DEFINE);
+        writeVarLong(newId);
+        out.writeUTF(name);
+        return newId;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
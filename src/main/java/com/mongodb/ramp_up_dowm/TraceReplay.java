@@ -0,0 +1,164 @@
+// Run with:
+//   mvn compile exec:java -Dexec.mainClass="com.mongodb.ramp_up_dowm.TraceReplay" -Dexec.args="/tmp/trace.bin /tmp/replay.txt" -Dreplay.speed=2 -Dmongodb.uri="mongodb://localhost:27017/test?w=majority"
+
+package com.mongodb.ramp_up_dowm;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Updates.set;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.mongodb.StubServer;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+
+/**
+ * Re-issues the operations of an {@link OpTrace}, captured by a run or converted from a slow query
+ * log by {@link SlowQueryLogConverter}, against the cluster in -Dmongodb.uri. Open loop: every operation
+ * starts at its traced offset divided by -Dreplay.speed (default 1, e.g. 2 or 10 for faster), on its own
+ * virtual thread, whatever the latency of the earlier ones. Latency is measured from the intended
+ * start, so a dispatcher falling behind shows up in the results; the {@code dispatchLag} histogram
+ * measures how late operations were started. At most -Dreplay.maxInFlight (default 10000) operations
+ * run at once.
+ * <p>
+ * Clients come from {@link ClientTopology}, -Dclients.count and the related options apply. The report
+ * has the replayed {@code read} and {@code write} latencies next to the traced ones, {@code tracedRead}
+ * and {@code tracedWrite}, recorded at dispatch.
+ */
+public class TraceReplay {
+    public static final String SPEED_PROPERTY = "replay.speed";
+    public static final String MAX_IN_FLIGHT_PROPERTY = "replay.maxInFlight";
+
+    // Parks until this close to the intended start, then spins.
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final Stats stats;
+    private final ClientTopology clients;
+    private final double speed;
+    private final Semaphore inFlight;
+    private final LatencyHistogram readLatency;
+    private final LatencyHistogram writeLatency;
+    private final LatencyHistogram tracedRead;
+    private final LatencyHistogram tracedWrite;
+    private final LatencyHistogram dispatchLag;
+    private final EventCounter reads;
+    private final EventCounter writes;
+    private final EventCounter readFailures;
+    private final EventCounter writeFailures;
+
+    public TraceReplay(Stats stats) throws Exception {
+        this.stats = stats;
+        this.speed = Double.parseDouble(System.getProperty(SPEED_PROPERTY, "1"));
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Replay speed must be a positive value: " + speed);
+        }
+        int maxInFlight = Integer.getInteger(MAX_IN_FLIGHT_PROPERTY, 10000);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.readLatency = stats.latencyHistogram("read");
+        this.writeLatency = stats.latencyHistogram("write");
+        this.tracedRead = stats.latencyHistogram("tracedRead");
+        this.tracedWrite = stats.latencyHistogram("tracedWrite");
+        this.dispatchLag = stats.latencyHistogram("dispatchLag");
+        this.reads = stats.counter("reads");
+        this.writes = stats.counter("writes");
+        this.readFailures = stats.counter("readFailure");
+        this.writeFailures = stats.counter("writeFailure");
+        stats.registerGauge("inFlight", () -> maxInFlight - inFlight.availablePermits());
+        this.clients = new ClientTopology(new DriverMetrics(stats, true));
+        this.clients.start();
+    }
+
+    /**
+     * Issues every operation of the trace on schedule and waits for the last one.
+     */
+    public void run(OpTrace.Reader trace) throws IOException, InterruptedException {
+        System.out.println(String.format("Replaying at %.1fx speed", speed));
+        stats.setPhase("REPLAY", 0);
+        long startNanos = System.nanoTime();
+        long count = 0;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            OpTrace.Op next;
+            while ((next = trace.next()) != null) {
+                OpTrace.Op op = next;
+                ++count;
+                long intended = startNanos + (long) (TimeUnit.MICROSECONDS.toNanos(op.startMicros) / speed);
+                long delay;
+                while ((delay = intended - System.nanoTime()) > SPIN_NANOS) {
+                    LockSupport.parkNanos(delay - SPIN_NANOS);
+                }
+                while (System.nanoTime() < intended) {
+                    Thread.onSpinWait();
+                }
+                inFlight.acquire();
+                dispatchLag.recordNanos(System.nanoTime() - intended);
+                (op.type == OpTrace.READ ? tracedRead : tracedWrite).recordNanos(
+                    TimeUnit.MICROSECONDS.toNanos(op.latencyMicros));
+                executor.execute(() -> {
+                    try {
+                        issue(op, intended);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        System.out.println("Replayed " + count + " operations");
+        clients.close();
+    }
+
+    private void issue(OpTrace.Op op, long intended) {
+        MongoCollection<Document> grades = clients.get(clients.newSlot())
+            .getDatabase("sample_training").getCollection("grades");
+        try {
+            if (op.type == OpTrace.READ) {
+                // Raw documents, so the replay measures the server rather than our decoding.
+                try (MongoCursor<RawBsonDocument> cursor = grades.withDocumentClass(RawBsonDocument.class)
+                        .find(ReadQuery.filter(op.key, op.width)).maxTime(400, TimeUnit.MILLISECONDS).iterator()) {
+                    while (cursor.hasNext()) {
+                        cursor.next();
+                    }
+                }
+                readLatency.recordNanos(System.nanoTime() - intended);
+                reads.increment();
+            } else {
+                grades.updateOne(eq("student_id", op.key), set("class_id", ThreadLocalRandom.current().nextInt(10)));
+                writeLatency.recordNanos(System.nanoTime() - intended);
+                writes.increment();
+            }
+        } catch (RuntimeException e) {
+            (op.type == OpTrace.READ ? readFailures : writeFailures).increment();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: TraceReplay <trace> [report, default /tmp/replay.txt]");
+            return;
+        }
+        String report = args.length > 1 ? args[1] : "/tmp/replay.txt";
+        StubServer stub = StubServer.startIfEmbedded();
+        System.out.println("Will generate the report in file " + report);
+        Stats stats = new Stats(report, new String[]{ "reads", "writes", "readFailure", "writeFailure", "inFlight",
+            "readP50Us", "readP99Us", "readMaxUs", "tracedReadP50Us", "tracedReadP99Us", "tracedReadMaxUs",
+            "writeP50Us", "writeP99Us", "writeMaxUs", "tracedWriteP50Us", "tracedWriteP99Us", "tracedWriteMaxUs",
+            "dispatchLagP99Us", "dispatchLagMaxUs", "findCmdP50Us", "findCmdP99Us", "updateCmdP50Us",
+            "updateCmdP99Us", "poolWaitP50Us", "poolWaitP99Us" });
+        try (OpTrace.Reader trace = new OpTrace.Reader(args[0])) {
+            new TraceReplay(stats).run(trace);
+        }
+        stats.close();
+        if (stub != null) {
+            System.out.println(stub.summary());
+            stub.close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.mongodb.ramp_up_dowm;
+
+/**
+ * Selects what kind of thread runs the {@link RampUpAndDown.WorkThread} logic.
+ * Use -Dworker.engine=platform (default) or -Dworker.engine=virtual.
+ * -Dworker.engine=reactive replaces the workers with the {@link ReactiveLoad} engine.
+ */
+public enum WorkerEngine {
+    PLATFORM {
+        @Override
+        Thread newThread(Runnable task) {
+            return new Thread(task);
+        }
+    },
+    VIRTUAL {
+        @Override
+        Thread newThread(Runnable task) {
+            return Thread.ofVirtual().unstarted(task);
+        }
+    },
+    REACTIVE {
+        @Override
+        Thread newThread(Runnable task) {
+            throw new IllegalStateException("The reactive engine does not run worker threads");
+        }
+    };
+
+    public static final String PROPERTY = "worker.engine";
+
+    /**
+     * @return an unstarted thread that will execute {@code task}.
+     */
+    abstract Thread newThread(Runnable task);
+
+    static WorkerEngine fromSystemProperties() {
+        String name = System.getProperty(PROPERTY, PLATFORM.name());
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown " + PROPERTY + ": " + name);
+        }
+    }
+}